@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.dx7;
+
+
+/**
+ * Serves host reads of any length from an engine which renders fixed blocks.
+ * <p>
+ * Whole blocks are rendered straight into the host buffer, only a block
+ * which straddles the end of a read goes through a scratch buffer and its
+ * rest is handed out first at the next read, so at most one block per read
+ * is copied. {@link #alignedBlockSize(int, int)} picks a block size for a host
+ * which reads a constant length so that nothing is copied at all.
+ * <p>
+ * Not thread safe.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (nsano)
+ * @version 0.00 2026/10/17 nsano initial version <br>
+ */
+public class BlockAdapter {
+
+    /** renders one block */
+    @FunctionalInterface
+    public interface Renderer {
+        /** writes {@code buffer[offset, offset + blockSize)} */
+        void render(float[] buffer, int offset);
+    }
+
+    private final int blockSize;
+    private final Renderer renderer;
+
+    // Extra buffering for when a read wants a buffer not a multiple of the block size
+    private final float[] extraBuf;
+    private int extraBufPos;
+    private int extraBufSize;
+
+    public BlockAdapter(int blockSize, Renderer renderer) {
+        this.blockSize = blockSize;
+        this.renderer = renderer;
+        this.extraBuf = new float[blockSize];
+    }
+
+    public int blockSize() {
+        return blockSize;
+    }
+
+    /** fills {@code buffer[offset, offset + len)} */
+    public void read(float[] buffer, int offset, int len) {
+        int i = Math.min(len, extraBufSize);
+        if (i > 0) {
+            System.arraycopy(extraBuf, extraBufPos, buffer, offset, i);
+            extraBufPos += i;
+            extraBufSize -= i;
+        }
+        for (; len - i >= blockSize; i += blockSize) {
+            renderer.render(buffer, offset + i);
+        }
+        if (i < len) {
+            renderer.render(extraBuf, 0);
+            int rest = len - i;
+            System.arraycopy(extraBuf, 0, buffer, offset + i, rest);
+            extraBufPos = rest;
+            extraBufSize = blockSize - rest;
+        }
+    }
+
+    /**
+     * The block size for a host which reads {@code hostSize} samples at a
+     * time: the largest supported one which divides it, so that no block
+     * straddles a read.
+     *
+     * @param fallback when no supported size divides {@code hostSize}, e.g. 300
+     */
+    public static int alignedBlockSize(int hostSize, int fallback) {
+        for (int n = Context.MAX_BLOCK_SIZE; n >= Context.MIN_BLOCK_SIZE; n >>= 1) {
+            if (hostSize > 0 && hostSize % n == 0) {
+                return n;
+            }
+        }
+        return fallback;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.dx7;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+
+/**
+ * A bounded queue of packed MIDI messages, see {@link EventQueue#pack(int, int, int)},
+ * with the sample each is due at, from any thread to the rendering thread.
+ * <p>
+ * Producers claim a slot by a compare and set and publish it by its
+ * sequence number, the consumer takes published slots in order. Nobody
+ * locks, nothing is allocated. The head and the tail are a cache line
+ * apart. {@link #size()} is for monitoring, from any thread.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (nsano)
+ * @version 0.00 2026/10/17 nsano initial version <br>
+ */
+public class CommandQueue {
+
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    /** longs between indices, two cache lines for the adjacent line prefetch */
+    private static final int PAD = 16;
+    /** slots claimed, by producers */
+    private static final int TAIL = PAD;
+    /** slots taken, by the consumer */
+    private static final int HEAD = PAD * 2;
+
+    private final long[] indices = new long[PAD * 3];
+
+    /** by slot, its index when published, its index + capacity when free again */
+    private final long[] sequences;
+    private final long[] samples;
+    private final int[] messages;
+    private final int mask;
+
+    /** @param capacity rounded up to a power of 2 */
+    public CommandQueue(int capacity) {
+        int length = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        sequences = new long[length];
+        samples = new long[length];
+        messages = new int[length];
+        mask = length - 1;
+        for (int i = 0; i < length; i++) {
+            sequences[i] = i;
+        }
+    }
+
+    /**
+     * By any thread.
+     *
+     * @return false when full
+     */
+    public boolean offer(long sample, int message) {
+        while (true) {
+            long tail = (long) LONGS.getVolatile(indices, TAIL);
+            int slot = (int) tail & mask;
+            long sequence = (long) LONGS.getAcquire(sequences, slot);
+            if (sequence == tail) {
+                if (LONGS.compareAndSet(indices, TAIL, tail, tail + 1)) {
+                    samples[slot] = sample;
+                    messages[slot] = message;
+                    LONGS.setRelease(sequences, slot, tail + 1);
+                    return true;
+                }
+            } else if (sequence < tail) {
+                return false;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /** whether the next message is not published yet, by the consumer */
+    public boolean isEmpty() {
+        long head = indices[HEAD];
+        return (long) LONGS.getAcquire(sequences, (int) head & mask) != head + 1;
+    }
+
+    /** the sample the next message is due at, by the consumer when not empty */
+    public long peekSample() {
+        return samples[(int) indices[HEAD] & mask];
+    }
+
+    /** removes the next message, by the consumer when not empty */
+    public int poll() {
+        long head = indices[HEAD];
+        int slot = (int) head & mask;
+        int message = messages[slot];
+        LONGS.setRelease(sequences, slot, head + sequences.length);
+        LONGS.setRelease(indices, HEAD, head + 1);
+        return message;
+    }
+
+    /** messages claimed and not taken yet */
+    public int size() {
+        long head = (long) LONGS.getAcquire(indices, HEAD);
+        long tail = (long) LONGS.getAcquire(indices, TAIL);
+        return (int) Math.max(0, Math.min(sequences.length, tail - head));
+    }
+}
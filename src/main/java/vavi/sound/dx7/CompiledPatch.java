@@ -0,0 +1,322 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.dx7;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import static java.lang.System.getLogger;
+
+
+/**
+ * An unpacked 156 byte patch resolved into per key and per velocity tables,
+ * so that a note on only reads tables.
+ * <p>
+ * The output level of an operator is split into a key part, level scaling
+ * included, and a velocity part, their sum is the one {@link Note} computes.
+ * Rate scaling and base pitch are per key, and the lowest output level at
+ * which an operator gets audible at all is resolved once, see
+ * {@link Note#operators(byte[], int, int)}.
+ * <p>
+ * A bank is compiled at once by {@link #compile(byte[][], Path)}, which
+ * keeps the result in a file and reads it back next time as long as the
+ * patches and the way the tables are derived from them are the same.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (nsano)
+ * @version 0.00 2026/10/17 nsano initial version <br>
+ */
+public class CompiledPatch {
+
+    private static final Logger logger = getLogger(CompiledPatch.class.getName());
+
+    /** "DX7C" */
+    private static final int MAGIC = 0x44583743;
+    /** of the file layout, the tables are checked by {@link #derivation()} */
+    private static final int VERSION = 2;
+
+    /** the source, to tell whether a compiled one is still valid */
+    private final byte[] patch;
+
+    // per operator
+    final int[][] rates = new int[6][4];
+    final int[][] levels = new int[6][4];
+    /** at op * 128 + key, output level before velocity */
+    private final int[] keyLevel = new int[6 * 128];
+    /** at op * 128 + velocity */
+    private final int[] velocityLevel = new int[6 * 128];
+    /** at op * 128 + key */
+    private final int[] rateScaling = new int[6 * 128];
+    /** at op * 128 + key */
+    private final int[] basePitch = new int[6 * 128];
+    /** lowest output level at which the operator can be heard, {@link Integer#MAX_VALUE} when switched off */
+    private final int[] audibleLevel = new int[6];
+
+    final int[] pitchRates = new int[4];
+    final int[] pitchLevels = new int[4];
+    final int algorithm;
+    final int fbShift;
+    final int pitchModDepth;
+    final int pitchModSens;
+
+    /** @param patch unpacked, 156 bytes */
+    public CompiledPatch(byte[] patch) {
+        this.patch = Arrays.copyOf(patch, 156);
+        for (int op = 0; op < 6; op++) {
+            int off = op * 21;
+            for (int i = 0; i < 4; i++) {
+                rates[op][i] = patch[off + i];
+                levels[op][i] = patch[off + 4 + i];
+            }
+            for (int k = 0; k < 128; k++) {
+                keyLevel[op * 128 + k] = Note.keyLevel(patch, op, k);
+                velocityLevel[op * 128 + k] = Note.velocityLevel(patch, op, k);
+                rateScaling[op * 128 + k] = Note.rateScaling(patch, op, k);
+                basePitch[op * 128 + k] = Note.basePitch(patch, op, k);
+            }
+            audibleLevel[op] = (patch[155] & (1 << op)) != 0 ? audibleLevel(levels[op]) : Integer.MAX_VALUE;
+        }
+        for (int i = 0; i < 4; i++) {
+            pitchRates[i] = patch[126 + i];
+            pitchLevels[i] = patch[130 + i];
+        }
+        algorithm = patch[134];
+        fbShift = Note.fbShift(patch);
+        pitchModDepth = Note.pitchModDepth(patch);
+        pitchModSens = Note.pitchModSens(patch);
+    }
+
+    /** the max level of an envelope grows with the output level, so the first audible one is searched */
+    private static int audibleLevel(int[] levels) {
+        int lo = 0;
+        int hi = 1 << 13; // over any output level
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (FmCore.isAudible(0, Exp2.lookup(Env.maxLevel(levels, mid) - (14 * (1 << 24))))) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    /** output level of an operator in microsteps, as {@link Env} takes it */
+    int outLevel(int op, int midiNote, int velocity) {
+        return Math.max(0, keyLevel[op * 128 + midiNote] + velocityLevel[op * 128 + Math.max(0, Math.min(127, velocity))]);
+    }
+
+    int rateScaling(int op, int midiNote) {
+        return rateScaling[op * 128 + midiNote];
+    }
+
+    int basePitch(int op, int midiNote) {
+        return basePitch[op * 128 + midiNote];
+    }
+
+    /** see {@link Note#operators(byte[], int, int)} */
+    int operators(int midiNote, int velocity) {
+        int operators = 0;
+        for (int op = 0; op < 6; op++) {
+            if (outLevel(op, midiNote, velocity) >= audibleLevel[op]) {
+                operators |= 1 << op;
+            }
+        }
+        return operators;
+    }
+
+    /** the source patch, a copy */
+    public byte[] getPatch() {
+        return patch.clone();
+    }
+
+    /** the source patch into {@code b}, nothing is allocated */
+    void copyTo(byte[] b) {
+        System.arraycopy(patch, 0, b, 0, 156);
+    }
+
+    /** whether this was compiled from the same bytes */
+    public boolean isFrom(byte[] patch) {
+        return Arrays.equals(this.patch, 0, 156, patch, 0, 156);
+    }
+
+    /** recently used ones by source array */
+    private static final Map<byte[], CompiledPatch> cache = new WeakHashMap<>();
+
+    /**
+     * The compiled one of a patch array, compiled again only when the array
+     * has been changed since.
+     */
+    public static CompiledPatch of(byte[] patch) {
+        synchronized (cache) {
+            CompiledPatch compiled = cache.get(patch);
+            if (compiled == null || !compiled.isFrom(patch)) {
+                compiled = new CompiledPatch(patch);
+                cache.put(patch, compiled);
+            }
+            return compiled;
+        }
+    }
+
+    private CompiledPatch(byte[] patch, DataInput in) throws IOException {
+        this.patch = patch;
+        for (int op = 0; op < 6; op++) {
+            for (int i = 0; i < 4; i++) {
+                rates[op][i] = patch[op * 21 + i];
+                levels[op][i] = patch[op * 21 + 4 + i];
+            }
+        }
+        for (int i = 0; i < 4; i++) {
+            pitchRates[i] = patch[126 + i];
+            pitchLevels[i] = patch[130 + i];
+        }
+        algorithm = patch[134];
+        fbShift = Note.fbShift(patch);
+        pitchModDepth = Note.pitchModDepth(patch);
+        pitchModSens = Note.pitchModSens(patch);
+        readInts(in, keyLevel);
+        readInts(in, velocityLevel);
+        readInts(in, rateScaling);
+        readInts(in, basePitch);
+        readInts(in, audibleLevel);
+    }
+
+    private static void readInts(DataInput in, int[] a) throws IOException {
+        byte[] b = new byte[a.length * Integer.BYTES];
+        in.readFully(b);
+        ByteBuffer.wrap(b).asIntBuffer().get(a);
+    }
+
+    private static void writeInts(DataOutput out, int[] a) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(a.length * Integer.BYTES);
+        b.asIntBuffer().put(a);
+        out.write(b.array());
+    }
+
+    /** writes the source and the tables */
+    public void write(DataOutput out) throws IOException {
+        out.write(patch);
+        writeInts(out, keyLevel);
+        writeInts(out, velocityLevel);
+        writeInts(out, rateScaling);
+        writeInts(out, basePitch);
+        writeInts(out, audibleLevel);
+    }
+
+    /** reads one written by {@link #write(DataOutput)} */
+    public static CompiledPatch read(DataInput in) throws IOException {
+        byte[] patch = new byte[156];
+        in.readFully(patch);
+        return new CompiledPatch(patch, in);
+    }
+
+    /**
+     * Compiles a bank, {@code cache} keeps the result over runs.
+     *
+     * @param cache a file, read when it holds the same patches, written
+     *              otherwise. null for no cache
+     */
+    public static CompiledPatch[] compile(byte[][] patches, Path cache) {
+        CompiledPatch[] compiled = null;
+        if (cache != null && Files.exists(cache)) {
+            try (InputStream is = new BufferedInputStream(Files.newInputStream(cache))) {
+                compiled = read(new DataInputStream(is), patches);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "patch cache: " + cache + ": " + e.getMessage());
+            }
+        }
+        if (compiled == null) {
+            compiled = new CompiledPatch[patches.length];
+            for (int i = 0; i < patches.length; i++) {
+                compiled[i] = new CompiledPatch(patches[i]);
+            }
+            if (cache != null) {
+                try {
+                    if (cache.getParent() != null) {
+                        Files.createDirectories(cache.getParent());
+                    }
+                    try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(cache))) {
+                        DataOutputStream out = new DataOutputStream(os);
+                        out.writeInt(MAGIC);
+                        out.writeInt(VERSION);
+                        out.writeInt(derivation());
+                        out.writeInt(compiled.length);
+                        for (CompiledPatch c : compiled) {
+                            c.write(out);
+                        }
+                        out.flush();
+                    }
+logger.log(Level.DEBUG, "patch cache written: " + cache);
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "patch cache: " + cache + ": " + e.getMessage());
+                }
+            }
+        }
+        synchronized (CompiledPatch.cache) {
+            for (int i = 0; i < patches.length; i++) {
+                CompiledPatch.cache.put(patches[i], compiled[i]);
+            }
+        }
+        return compiled;
+    }
+
+    /**
+     * A hash of the tables of a probe patch, which tells tables derived by
+     * another version of {@link Note}, e.g. of its level scaling, from
+     * these in a cache.
+     */
+    static int derivation() {
+        // by byte of an operator, over the range of each
+        int[] ranges = { 100, 100, 100, 100, 100, 100, 100, 100, 100, 100, 100, 4, 4, 8, 4, 8, 100, 2, 32, 100, 15 };
+        byte[] probe = new byte[156];
+        for (int op = 0; op < 6; op++) {
+            for (int i = 0; i < 21; i++) {
+                probe[op * 21 + i] = (byte) ((op * 21 + i) * 37 % ranges[i]);
+            }
+        }
+        probe[135] = 5; // feedback
+        probe[139] = 50; // pitch mod depth
+        probe[143] = 3; // pitch mod sensitivity
+        probe[155] = 0x3f;
+        CompiledPatch compiled = new CompiledPatch(probe);
+        int hash = Arrays.hashCode(new int[] { compiled.fbShift, compiled.pitchModDepth, compiled.pitchModSens });
+        for (int[] table : new int[][] { compiled.keyLevel, compiled.velocityLevel, compiled.rateScaling, compiled.basePitch, compiled.audibleLevel }) {
+            hash = hash * 31 + Arrays.hashCode(table);
+        }
+        return hash;
+    }
+
+    /** @return null when the cache is not of {@code patches} */
+    private static CompiledPatch[] read(DataInput in, byte[][] patches) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != derivation() || in.readInt() != patches.length) {
+            return null;
+        }
+        CompiledPatch[] compiled = new CompiledPatch[patches.length];
+        for (int i = 0; i < patches.length; i++) {
+            compiled[i] = read(in);
+            if (!compiled[i].isFrom(patches[i])) {
+                return null;
+            }
+        }
+logger.log(Level.DEBUG, "patch cache read: " + patches.length);
+        return compiled;
+    }
+}
@@ -1,47 +1,52 @@
 package vavi.sound.dx7;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
- * Context.
+ * Context, what is shared by everything rendering at a sample rate and a
+ * block size. Immutable, modulators such as {@link Lfo} and
+ * {@link PitchEnv} are kept by the one they modulate.
  *
  * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (nsano)
  * @version 0.00 2022-06-15 nsano initial version <br>
  */
 public class Context {
-    public float sampleRate;
+    public final float sampleRate;
 
-    // The original DX7 had one single LFO. Later units had an LFO per note.
-    public Lfo lfo;
-    public FreqLut freqLut;
-    public PitchEnv pitchEnv;
+    /** log2 of the render block size */
+    public final int lgN;
+    /** render block size, from {@link #MIN_BLOCK_SIZE} to {@link #MAX_BLOCK_SIZE} */
+    public final int n;
 
-    private static final Map<Float, Context> instances = new HashMap<>();
+    public static final int MIN_BLOCK_SIZE = 16;
+    public static final int MAX_BLOCK_SIZE = 512;
 
+    public final FreqLut freqLut;
+
+    private static final Map<String, Context> instances = new ConcurrentHashMap<>();
+
+    /** with the default block size {@link Note#N} */
     public static Context getInstance(float sampleRate) {
-        if (instances.containsKey(sampleRate)) {
-            return instances.get(sampleRate);
-        } else {
-            Context context = new Context(sampleRate);
-            instances.put(sampleRate, context);
-            return context;
-        }
+        return getInstance(sampleRate, Note.N);
     }
 
-    private Context(float sampleRate) {
-        this.sampleRate = sampleRate;
-        freqLut = new FreqLut(sampleRate);
-        lfo = new Lfo(sampleRate);
-        pitchEnv = new PitchEnv(sampleRate);
+    /**
+     * @param blockSize power of 2 from {@link #MIN_BLOCK_SIZE} to {@link #MAX_BLOCK_SIZE}
+     * @throws IllegalArgumentException blockSize is not supported
+     */
+    public static Context getInstance(float sampleRate, int blockSize) {
+        if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE || Integer.bitCount(blockSize) != 1) {
+            throw new IllegalArgumentException("block size: " + blockSize);
+        }
+        return instances.computeIfAbsent(sampleRate + "/" + blockSize, k -> new Context(sampleRate, blockSize));
     }
 
-    public void setSampleRate(float sampleRate) {
+    private Context(float sampleRate, int blockSize) {
         this.sampleRate = sampleRate;
-        Context context = getInstance(sampleRate);
-        this.freqLut = context.freqLut;
-        this.lfo = context.lfo;
-        this.pitchEnv = context.pitchEnv;
+        this.n = blockSize;
+        this.lgN = Integer.numberOfTrailingZeros(blockSize);
+        freqLut = new FreqLut(sampleRate);
     }
 }
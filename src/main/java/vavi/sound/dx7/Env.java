@@ -19,71 +19,240 @@ package vavi.sound.dx7;
 
 class Env {
 
-    private final int[] rates = new int[4];
-    private final int[] levels = new int[4];
-    private final int outLevel;
-    private final int rateScaling;
+    // one envelope in a flat int array, so that many voices can be kept
+    // side by side (see VoicePool)
+    private static final int RATES = 0;
+    private static final int LEVELS = 4;
+    private static final int OUT_LEVEL = 8;
+    private static final int RATE_SCALING = 9;
     // Level is stored so that 2^24 is one doubling, ie 16 more bits than
     // the DX7 itself (fraction is stored in level rather than separate
     // counter)
-    private int level;
-    private int targetLevel;
-    private boolean rising;
-    private int ix;
-    private int inc;
+    private static final int LEVEL = 10;
+    private static final int TARGET_LEVEL = 11;
+    private static final int RISING = 12;
+    private static final int IX = 13;
+    private static final int INC = 14;
+    private static final int DOWN = 15;
+    private static final int LG_N = 16;
+    /** ints used by one envelope */
+    static final int STRIDE = 17;
 
-    private boolean down;
+    private final int[] state;
+    private final int base;
 
-    Env(int[] r, int[] l, int ol, int rateScaling) {
+    /** @param lgN log2 of the block size, the envelope steps once a block */
+    Env(int[] r, int[] l, int ol, int rateScaling, int lgN) {
+        this.state = new int[STRIDE];
+        this.base = 0;
+        init(state, base, r, l, ol, rateScaling, lgN);
+    }
+
+    /** starts over, as constructed */
+    void reset(int[] r, int[] l, int ol, int rateScaling, int lgN) {
+        init(state, base, r, l, ol, rateScaling, lgN);
+    }
+
+    static void init(int[] s, int o, int[] r, int[] l, int ol, int rateScaling, int lgN) {
         for (int i = 0; i < 4; i++) {
-            rates[i] = r[i];
-            levels[i] = l[i];
+            s[o + RATES + i] = r[i];
+            s[o + LEVELS + i] = l[i];
         }
-        outLevel = ol;
-        this.rateScaling = rateScaling;
-        level = 0;
-        down = true;
-        advance(0);
+        s[o + OUT_LEVEL] = ol;
+        s[o + RATE_SCALING] = rateScaling;
+        s[o + LG_N] = lgN;
+        s[o + LEVEL] = 0;
+        s[o + DOWN] = 1;
+        advance(s, o, 0);
     }
 
     int getSample() {
-        if (ix < 3 || (ix < 4) && !down) {
-            if (rising) {
-                final int jumpTarget = 1716;
-                if (level < (jumpTarget << 16)) {
-                    level = jumpTarget << 16;
+        return getSample(state, base);
+    }
+
+    private static final int JUMP_LEVEL = 1716 << 16;
+
+    static int getSample(int[] s, int o) {
+        int ix = s[o + IX];
+        int level = s[o + LEVEL];
+        if (ix < 3 || (ix < 4) && s[o + DOWN] == 0) {
+            int targetLevel = s[o + TARGET_LEVEL];
+            boolean reached;
+            if (s[o + RISING] != 0) {
+                if (level < JUMP_LEVEL) {
+                    level = JUMP_LEVEL;
                 }
-                level += (((17 << 24) - level) >> 24) * inc;
+                level += (((17 << 24) - level) >> 24) * s[o + INC];
                 // TODO: should probably be more accurate when inc is large
-                if (level >= targetLevel) {
-                    level = targetLevel;
-                    advance(ix + 1);
-                }
+                reached = level >= targetLevel;
             } else { // !rising
-                level -= inc;
-                if (level <= targetLevel) {
-                    level = targetLevel;
-                    advance(ix + 1);
-                }
+                level -= s[o + INC];
+                reached = level <= targetLevel;
+            }
+            if (reached) {
+                level = targetLevel;
+            }
+            s[o + LEVEL] = level;
+            if (reached) {
+                advance(s, o, ix + 1);
             }
         }
-        // TODO: this would be a good place to set level to 0 when under
-        // threshold
+        // a voice under the threshold is reaped by the owner instead of
+        // zeroing the level here, see isFalling and VoicePool
         return level;
     }
 
+    /** the level holds, {@link #getSample} returns it until the key changes */
+    static boolean isHeld(int[] s, int o) {
+        int ix = s[o + IX];
+        return !(ix < 3 || (ix < 4) && s[o + DOWN] == 0);
+    }
+
+    /**
+     * Number of {@link #getSample} calls until the current segment reaches its
+     * target, the reaching one included, {@link Integer#MAX_VALUE} while the
+     * level holds or when it never gets there. Lets a caller know the level
+     * won't change segment until then.
+     */
+    static int blocksLeft(int[] s, int o) {
+        if (isHeld(s, o)) {
+            return Integer.MAX_VALUE;
+        }
+        int level = s[o + LEVEL];
+        int targetLevel = s[o + TARGET_LEVEL];
+        if (s[o + RISING] != 0) {
+            long r = rise(level, s[o + INC], targetLevel, Integer.MAX_VALUE);
+            return (int) r == targetLevel ? (int) (r >>> 32) : Integer.MAX_VALUE;
+        } else {
+            return fallBlocks(level, s[o + INC], targetLevel);
+        }
+    }
+
+    /** the state after {@code blocks} calls of {@link #getSample}, segment by segment */
+    static void skip(int[] s, int o, int blocks) {
+        while (blocks > 0 && !isHeld(s, o)) {
+            int level = s[o + LEVEL];
+            int inc = s[o + INC];
+            int targetLevel = s[o + TARGET_LEVEL];
+            int steps;
+            if (s[o + RISING] != 0) {
+                long r = rise(level, inc, targetLevel, blocks);
+                steps = (int) (r >>> 32);
+                level = (int) r;
+            } else {
+                int left = fallBlocks(level, inc, targetLevel);
+                steps = Math.min(blocks, left);
+                level = steps == left ? targetLevel : level - steps * inc;
+            }
+            s[o + LEVEL] = level;
+            blocks -= steps;
+            if (level == targetLevel) {
+                advance(s, o, s[o + IX] + 1);
+            }
+        }
+    }
+
+    boolean isHeld() {
+        return isHeld(state, base);
+    }
+
+    int blocksLeft() {
+        return blocksLeft(state, base);
+    }
+
+    void skip(int blocks) {
+        skip(state, base, blocks);
+    }
+
+    private static int fallBlocks(int level, int inc, int targetLevel) {
+        if (level <= targetLevel) {
+            return 1;
+        }
+        return inc > 0 ? (int) Math.min(Integer.MAX_VALUE, ((long) level - targetLevel + inc - 1) / inc) : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Walks a rising segment for at most {@code blocks} steps, stopping at the
+     * step which reaches the target. The multiplier of a step
+     * {@code ((17 << 24) - level) >> 24} holds over {@code 1 << 24} of level,
+     * so a run of steps with the same one is taken at once. Steps which
+     * overflow, as very fast rates at large blocks do, are taken one by one.
+     *
+     * @return steps taken {@code << 32 |} the level after them, which is the
+     *         target when reached
+     */
+    private static long rise(int level, int inc, int targetLevel, int blocks) {
+        int steps = 0;
+        int jumpedAt = -1;
+        while (steps < blocks) {
+            if (level < JUMP_LEVEL) {
+                if (jumpedAt >= 0) {
+                    // wrapped under the jump level again, from here it goes
+                    // round the same way forever
+                    int period = steps - jumpedAt;
+                    for (int i = (blocks - steps) % period; i > 0; i--) {
+                        if (level < JUMP_LEVEL) {
+                            level = JUMP_LEVEL;
+                        }
+                        level += (((17 << 24) - level) >> 24) * inc;
+                    }
+                    return (long) blocks << 32 | (level & 0xffffffffL);
+                }
+                level = JUMP_LEVEL;
+                jumpedAt = steps;
+            }
+            int m = ((17 << 24) - level) >> 24;
+            long d = (long) m * inc;
+            if (d == 0) {
+                return (long) blocks << 32 | (level & 0xffffffffL);
+            }
+            if (d < 0 || d > Integer.MAX_VALUE || level + d > Integer.MAX_VALUE) {
+                // one step as getSample does, in int
+                level += m * inc;
+                steps++;
+                if (level >= targetLevel) {
+                    return (long) steps << 32 | (targetLevel & 0xffffffffL);
+                }
+                continue;
+            }
+            // levels before a step stay in this run while they are at most the boundary
+            long boundary = (long) (17 - m) << 24;
+            long run = (boundary - level) / d + 1;
+            long toTarget = Math.max(1, (targetLevel - (long) level + d - 1) / d);
+            if (toTarget <= run && toTarget <= blocks - steps) {
+                return (steps + toTarget) << 32 | (targetLevel & 0xffffffffL);
+            }
+            run = Math.min(run, blocks - steps);
+            level += (int) (run * d);
+            steps += (int) run;
+        }
+        return (long) steps << 32 | (level & 0xffffffffL);
+    }
+
+    /**
+     * The key is released and the level can only fall from here on, so once
+     * an operator is inaudible it stays so.
+     */
+    static boolean isFalling(int[] s, int o) {
+        return s[o + DOWN] == 0 && (s[o + IX] >= 4 || s[o + RISING] == 0);
+    }
+
     void keyDown(boolean d) {
-        if (down != d) {
-            down = d;
-            advance(d ? 0 : 3);
+        keyDown(state, base, d);
+    }
+
+    static void keyDown(int[] s, int o, boolean d) {
+        if ((s[o + DOWN] != 0) != d) {
+            s[o + DOWN] = d ? 1 : 0;
+            advance(s, o, d ? 0 : 3);
         }
     }
 
     void setParam(int param, int value) {
         if (param < 4) {
-            rates[param] = value;
+            state[base + RATES + param] = value;
         } else if (param < 8) {
-            levels[param - 4] = value;
+            state[base + LEVELS + param - 4] = value;
         }
         // Unknown parameter, ignore for now
     }
@@ -96,25 +265,41 @@ class Env {
         return outLevel >= 20 ? 28 + outLevel : levelLut[outLevel];
     }
 
-    void advance(int newIx) {
-        ix = newIx;
-        if (ix < 4) {
-            int newLevel = levels[ix];
-            int actualLevel = scaleOutLevel(newLevel) >> 1;
+    private static int targetLevel(int level, int outLevel) {
+        int actualLevel = scaleOutLevel(level) >> 1;
+
+        actualLevel = (actualLevel << 6) + outLevel - 4256;
+        actualLevel = Math.max(actualLevel, 16);
+        // level here is same as Java impl
+        return actualLevel << 16;
+    }
+
+    /**
+     * The highest level the envelope ever returns, a rising segment stops at
+     * its target.
+     */
+    static int maxLevel(int[] l, int ol) {
+        int max = 0;
+        for (int i = 0; i < 4; i++) {
+            max = Math.max(max, targetLevel(l[i], ol));
+        }
+        return max;
+    }
 
-            actualLevel = (actualLevel << 6) + outLevel - 4256;
-            actualLevel = Math.max(actualLevel, 16);
-            // level here is same as Java impl
-            targetLevel = actualLevel << 16;
-            rising = (targetLevel > level);
+    private static void advance(int[] s, int o, int newIx) {
+        s[o + IX] = newIx;
+        if (newIx < 4) {
+            int targetLevel = targetLevel(s[o + LEVELS + newIx], s[o + OUT_LEVEL]);
+            s[o + TARGET_LEVEL] = targetLevel;
+            s[o + RISING] = targetLevel > s[o + LEVEL] ? 1 : 0;
 
             // rate
 
-            int qRate = (rates[ix] * 41) >> 6;
+            int qRate = (s[o + RATES + newIx] * 41) >> 6;
 
-            qRate += rateScaling;
+            qRate += s[o + RATE_SCALING];
             qRate = Math.min(qRate, 63);
-            inc = (4 + (qRate & 3)) << (2 + Note.LG_N + (qRate >> 2));
+            s[o + INC] = (4 + (qRate & 3)) << (2 + s[o + LG_N] + (qRate >> 2));
         }
     }
 }
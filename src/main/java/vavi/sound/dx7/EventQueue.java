@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.dx7;
+
+
+/**
+ * MIDI short messages to come, in the order of the sample they are due at,
+ * the order given for the same sample. A message is packed into an int,
+ * status | data1 &lt;&lt; 8 | data2 &lt;&lt; 16, nothing is allocated. Messages
+ * mostly come in order, so one is inserted from the tail in no time.
+ * <p>
+ * Not thread safe.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (nsano)
+ * @version 0.00 2026/10/17 nsano initial version <br>
+ */
+public class EventQueue {
+
+    private final long[] samples;
+    private final int[] messages;
+    private final int mask;
+    private int head;
+    private int size;
+
+    /** @param capacity rounded up to a power of 2 */
+    public EventQueue(int capacity) {
+        int length = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        samples = new long[length];
+        messages = new int[length];
+        mask = length - 1;
+    }
+
+    public static int pack(int status, int data1, int data2) {
+        return (status & 0xff) | (data1 & 0x7f) << 8 | (data2 & 0x7f) << 16;
+    }
+
+    public static int status(int message) {
+        return message & 0xff;
+    }
+
+    public static int data1(int message) {
+        return message >> 8 & 0xff;
+    }
+
+    public static int data2(int message) {
+        return message >> 16 & 0xff;
+    }
+
+    /** @return false when full */
+    public boolean offer(long sample, int message) {
+        if (size == samples.length) {
+            return false;
+        }
+        int i = size;
+        while (i > 0 && samples[(head + i - 1) & mask] > sample) {
+            samples[(head + i) & mask] = samples[(head + i - 1) & mask];
+            messages[(head + i) & mask] = messages[(head + i - 1) & mask];
+            i--;
+        }
+        samples[(head + i) & mask] = sample;
+        messages[(head + i) & mask] = message;
+        size++;
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == samples.length;
+    }
+
+    /** the sample the first message is due at, call when not empty */
+    public long peekSample() {
+        return samples[head];
+    }
+
+    /** removes the first message, call when not empty */
+    public int poll() {
+        int message = messages[head];
+        head = (head + 1) & mask;
+        size--;
+        return message;
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+}
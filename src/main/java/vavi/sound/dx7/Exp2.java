@@ -97,6 +97,31 @@ class Tanh {
         }
     }
 
+    /** {@link #tanhTab} in float, 1.0 is full scale */
+    private static final float[] tanhTabFloat = new float[TANH_N_SAMPLES << 1];
+
+    static {
+        for (int i = 0; i < tanhTab.length; i++) {
+            tanhTabFloat[i] = tanhTab[i] / (float) (1 << 24);
+        }
+    }
+
+    /** float version of {@link #lookup(int)}, 1.0 is full scale */
+    public static float lookupFloat(float x) {
+        float ax = Math.abs(x);
+        float y;
+        if (ax >= 4) {
+            y = ax >= 8.5f ? 1 : 1 - 2 * (float) Math.exp(-2 * ax);
+        } else {
+            float xs = ax * (TANH_N_SAMPLES / 4f);
+            int xInt = (int) xs;
+            float dy = tanhTabFloat[xInt << 1];
+            float y0 = tanhTabFloat[(xInt << 1) + 1];
+            y = y0 + dy * (xs - xInt);
+        }
+        return x < 0 ? -y : y;
+    }
+
     private static double dtanh(double y) {
         return 1 - y * y;
     }
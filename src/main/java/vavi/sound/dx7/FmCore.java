@@ -19,6 +19,8 @@ package vavi.sound.dx7;
 
 class FmCore {
 
+    private static final int kLevelThresh = 1120;
+
     public static class FmOpParams {
         final int[] gain = new int[2];
         int freq;
@@ -115,19 +117,524 @@ class FmCore {
         return sb.toString();
     }
 
+    /**
+     * Render path specialized for one algorithm. The bus routing, the feedback
+     * operator and the carrier summation are hard-wired, which is only valid
+     * while every operator is above {@link #kLevelThresh}.
+     */
+    @FunctionalInterface
+    interface Kernel {
+        void compute(int[] output, int[] bus1, int[] bus2, FmOpParams[] params, int[] fbBuf, int feedbackShift, int lgN, SinQuality quality);
+    }
+
+    private static void fb(int[] output, FmOpParams param, int[] fbBuf, int feedbackShift, boolean add, int lgN, SinQuality quality) {
+        if (feedbackShift < 16) {
+            FmOpKernel.computeFb(output, param.phase, param.freq, param.gain[0], param.gain[1], fbBuf, feedbackShift, add, lgN, quality);
+        } else {
+            FmOpKernel.computePure(output, param.phase, param.freq, param.gain[0], param.gain[1], add, lgN, quality);
+        }
+    }
+
+    private static void pure(int[] output, FmOpParams param, boolean add, int lgN, SinQuality quality) {
+        FmOpKernel.computePure(output, param.phase, param.freq, param.gain[0], param.gain[1], add, lgN, quality);
+    }
+
+    private static void mod(int[] output, int[] input, FmOpParams param, boolean add, int lgN, SinQuality quality) {
+        FmOpKernel.compute(output, input, param.phase, param.freq, param.gain[0], param.gain[1], add, lgN, quality);
+    }
+
+    // generated from the algorithms table above with every operator audible
+    private static final Kernel[] kernels = {
+        (out, b1, b2, p, fbBuf, fbShift, lgN, q) -> { // 1
+            fb(b1, p[0], fbBuf, fbShift, false, lgN, q);
+            mod(b1, b1, p[1], false, lgN, q);
+            mod(b1, b1, p[2], false, lgN, q);
+            mod(out, b1, p[3], true, lgN, q);
+            pure(b1, p[4], false, lgN, q);
+            mod(out, b1, p[5], true, lgN, q);
+        },
+        (out, b1, b2, p, fbBuf, fbShift, lgN, q) -> { // 2
+            pure(b1, p[0], false, lgN, q);
+            mod(b1, b1, p[1], false, lgN, q);
+            mod(b1, b1, p[2], false, lgN, q);
+            mod(out, b1, p[3], true, lgN, q);
+            fb(b1, p[4], fbBuf, fbShift, false, lgN, q);
+            mod(out, b1, p[5], true, lgN, q);
+        },
+        (out, b1, b2, p, fbBuf, fbShift, lgN, q) -> { // 3
+            fb(b1, p[0], fbBuf, fbShift, false, lgN, q);
+            mod(b1, b1, p[1], false, lgN, q);
+            mod(out, b1, p[2], true, lgN, q);
+            pure(b1, p[3], false, lgN, q);
+            mod(b1, b1, p[4], false, lgN, q);
+            mod(out, b1, p[5], true, lgN, q);
+        },
+        (out, b1, b2, p, fbBuf, fbShift, lgN, q) -> { // 4
+            pure(b1, p[0], false, lgN, q);
+            mod(b1, b1, p[1], false, lgN, q);
+            mod(out, b1, p[2], true, lgN, q);
+            pure(b1, p[3], false, lgN, q);
+            mod(b1, b1, p[4], false, lgN, q);
+            mod(out, b1, p[5], true, lgN, q);
+        },
+        (out, b1, b2, p, fbBuf, fbShift, lgN, q) -> { // 5
+            fb(b1, p[0], fbBuf, fbShift, false, lgN, q);
+            mod(out, b1, p[1], true, lgN, q);
+            pure(b1, p[2], false, lgN, q);
+            mod(out, b1, p[3], true, lgN, q);
+            pure(b1, p[4], false, lgN, q);
+            mod(out, b1, p[5], true, lgN, q);
+        },
+        (out, b1, b2, p, fbBuf, fbShift, lgN, q) -> { // 6
+            pure(b1, p[0], false, lgN, q);
+            mod(out, b1, p[1], true, lgN, q);
+            pure(b1, p[2], false, lgN, q);
+            mod(out, b1, p[3], true, lgN, q);
+            pure(b1, p[4], false, lgN, q);
+            mod(out, b1, p[5], true, lgN, q);
+        },
+        (out, b1, b2, p, fbBuf, fbShift, lgN, q) -> { // 7
+            fb(b1, p[0], fbBuf, fbShift, false, lgN, q);
+            mod(b1, b1, p[1], false, lgN, q);
+            pure(b1, p[2], true, lgN, q);
+            mod(out, b1, p[3], true, lgN, q);
+            pure(b1, p[4], false, lgN, q);
+            mod(out, b1, p[5], true, lgN, q);
+        },
+        (out, b1, b2, p, fbBuf, fbShift, lgN, q) -> { // 8
+            pure(b1, p[0], false, lgN, q);
+            mod(b1, b1, p[1], false, lgN, q);
+            fb(b1, p[2], fbBuf, fbShift, true, lgN, q);
+            mod(out, b1, p[3], true, lgN, q);
+            pure(b1, p[4], false, lgN, q);
+            mod(out, b1, p[5], true, lgN, q);
+        },
+        (out, b1, b2, p, fbBuf, fbShift, lgN, q) -> { // 9
+            pure(b1, p[0], false, lgN, q);
+            mod(b1, b1, p[1], false, lgN, q);
+            pure(b1, p[2], true, lgN, q);
+            mod(out, b1, p[3], true, lgN, q);
+            fb(b1, p[4], fbBuf, fbShift, false, lgN, q);
+            mod(out, b1, p[5], true, lgN, q);
+        },
+        (out, b1, b2, p, fbBuf, fbShift, lgN, q) -> { // 10
+            pure(b1, p[0], false, lgN, q);
+            pure(b1, p[1], true, lgN, q);
+            mod(out, b1, p[2], true, lgN, q);
+            fb(b1, p[3], fbBuf, fbShift, false, lgN, q);
+            mod(b1, b1, p[4], false, lgN, q);
+            mod(out, b1, p[5], true, lgN, q);
+        },
+        (out, b1, b2, p, fbBuf, fbShift, lgN, q) -> { // 11
+            fb(b1, p[0], fbBuf, fbShift, false, lgN, q);
+            pure(b1, p[1], true, lgN, q);
+            mod(out, b1, p[2], true, lgN, q);
+            pure(b1, p[3], false, lgN, q);
+            mod(b1, b1, p[4], false, lgN, q);
+            mod(out, b1, p[5], true, lgN, q);
+        },
+        (out, b1, b2, p, fbBuf, fbShift, lgN, q) -> { // 12
+            pure(b1, p[0], false, lgN, q);
+            pure(b1, p[1], true, lgN, q);
+            pure(b1, p[2], true, lgN, q);
+            mod(out, b1, p[3], true, lgN, q);
+            fb(b1, p[4], fbBuf, fbShift, false, lgN, q);
+            mod(out, b1, p[5], true, lgN, q);
+        },
+        (out, b1, b2, p, fbBuf, fbShift, lgN, q) -> { // 13
+            fb(b1, p[0], fbBuf, fbShift, false, lgN, q);
+            pure(b1, p[1], true, lgN, q);
+            pure(b1, p[2], true, lgN, q);
+            mod(out, b1, p[3], true, lgN, q);
+            pure(b1, p[4], false, lgN, q);
+            mod(out, b1, p[5], true, lgN, q);
+        },
+        (out, b1, b2, p, fbBuf, fbShift, lgN, q) -> { // 14
+            fb(b1, p[0], fbBuf, fbShift, false, lgN, q);
+            pure(b1, p[1], true, lgN, q);
+            mod(b1, b1, p[2], false, lgN, q);
+            mod(out, b1, p[3], true, lgN, q);
+            pure(b1, p[4], false, lgN, q);
+            mod(out, b1, p[5], true, lgN, q);
+        },
+        (out, b1, b2, p, fbBuf, fbShift, lgN, q) -> { // 15
+            pure(b1, p[0], false, lgN, q);
+            pure(b1, p[1], true, lgN, q);
+            mod(b1, b1, p[2], false, lgN, q);
+            mod(out, b1, p[3], true, lgN, q);
+            fb(b1, p[4], fbBuf, fbShift, false, lgN, q);
+            mod(out, b1, p[5], true, lgN, q);
+        },
+        (out, b1, b2, p, fbBuf, fbShift, lgN, q) -> { // 16
+            fb(b1, p[0], fbBuf, fbShift, false, lgN, q);
+            mod(b1, b1, p[1], false, lgN, q);
+            pure(b2, p[2], false, lgN, q);
+            mod(b1, b2, p[3], true, lgN, q);
+            pure(b1, p[4], true, lgN, q);
+            mod(out, b1, p[5], true, lgN, q);
+        },
+        (out, b1, b2, p, fbBuf, fbShift, lgN, q) -> { // 17
+            pure(b1, p[0], false, lgN, q);
+            mod(b1, b1, p[1], false, lgN, q);
+            pure(b2, p[2], false, lgN, q);
+            mod(b1, b2, p[3], true, lgN, q);
+            fb(b1, p[4], fbBuf, fbShift, true, lgN, q);
+            mod(out, b1, p[5], true, lgN, q);
+        },
+        (out, b1, b2, p, fbBuf, fbShift, lgN, q) -> { // 18
+            pure(b1, p[0], false, lgN, q);
+            mod(b1, b1, p[1], false, lgN, q);
+            mod(b1, b1, p[2], false, lgN, q);
+            fb(b1, p[3], fbBuf, fbShift, true, lgN, q);
+            pure(b1, p[4], true, lgN, q);
+            mod(out, b1, p[5], true, lgN, q);
+        },
+        (out, b1, b2, p, fbBuf, fbShift, lgN, q) -> { // 19
+            fb(b1, p[0], fbBuf, fbShift, false, lgN, q);
+            mod(out, b1, p[1], true, lgN, q);
+            mod(out, b1, p[2], true, lgN, q);
+            pure(b1, p[3], false, lgN, q);
+            mod(b1, b1, p[4], false, lgN, q);
+            mod(out, b1, p[5], true, lgN, q);
+        },
+        (out, b1, b2, p, fbBuf, fbShift, lgN, q) -> { // 20
+            pure(b1, p[0], false, lgN, q);
+            pure(b1, p[1], true, lgN, q);
+            mod(out, b1, p[2], true, lgN, q);
+            fb(b1, p[3], fbBuf, fbShift, false, lgN, q);
+            mod(out, b1, p[4], true, lgN, q);
+            mod(out, b1, p[5], true, lgN, q);
+        },
+        (out, b1, b2, p, fbBuf, fbShift, lgN, q) -> { // 21
+            pure(b1, p[0], false, lgN, q);
+            mod(out, b1, p[1], true, lgN, q);
+            mod(out, b1, p[2], true, lgN, q);
+            fb(b1, p[3], fbBuf, fbShift, false, lgN, q);
+            mod(out, b1, p[4], true, lgN, q);
+            mod(out, b1, p[5], true, lgN, q);
+        },
+        (out, b1, b2, p, fbBuf, fbShift, lgN, q) -> { // 22
+            fb(b1, p[0], fbBuf, fbShift, false, lgN, q);
+            mod(out, b1, p[1], true, lgN, q);
+            mod(out, b1, p[2], true, lgN, q);
+            mod(out, b1, p[3], true, lgN, q);
+            pure(b1, p[4], false, lgN, q);
+            mod(out, b1, p[5], true, lgN, q);
+        },
+        (out, b1, b2, p, fbBuf, fbShift, lgN, q) -> { // 23
+            fb(b1, p[0], fbBuf, fbShift, false, lgN, q);
+            mod(out, b1, p[1], true, lgN, q);
+            mod(out, b1, p[2], true, lgN, q);
+            pure(b1, p[3], false, lgN, q);
+            mod(out, b1, p[4], true, lgN, q);
+            pure(out, p[5], true, lgN, q);
+        },
+        (out, b1, b2, p, fbBuf, fbShift, lgN, q) -> { // 24
+            fb(b1, p[0], fbBuf, fbShift, false, lgN, q);
+            mod(out, b1, p[1], true, lgN, q);
+            mod(out, b1, p[2], true, lgN, q);
+            mod(out, b1, p[3], true, lgN, q);
+            pure(out, p[4], true, lgN, q);
+            pure(out, p[5], true, lgN, q);
+        },
+        (out, b1, b2, p, fbBuf, fbShift, lgN, q) -> { // 25
+            fb(b1, p[0], fbBuf, fbShift, false, lgN, q);
+            mod(out, b1, p[1], true, lgN, q);
+            mod(out, b1, p[2], true, lgN, q);
+            pure(out, p[3], true, lgN, q);
+            pure(out, p[4], true, lgN, q);
+            pure(out, p[5], true, lgN, q);
+        },
+        (out, b1, b2, p, fbBuf, fbShift, lgN, q) -> { // 26
+            fb(b1, p[0], fbBuf, fbShift, false, lgN, q);
+            pure(b1, p[1], true, lgN, q);
+            mod(out, b1, p[2], true, lgN, q);
+            pure(b1, p[3], false, lgN, q);
+            mod(out, b1, p[4], true, lgN, q);
+            pure(out, p[5], true, lgN, q);
+        },
+        (out, b1, b2, p, fbBuf, fbShift, lgN, q) -> { // 27
+            pure(b1, p[0], false, lgN, q);
+            pure(b1, p[1], true, lgN, q);
+            mod(out, b1, p[2], true, lgN, q);
+            fb(b1, p[3], fbBuf, fbShift, false, lgN, q);
+            mod(out, b1, p[4], true, lgN, q);
+            pure(out, p[5], true, lgN, q);
+        },
+        (out, b1, b2, p, fbBuf, fbShift, lgN, q) -> { // 28
+            pure(out, p[0], true, lgN, q);
+            fb(b1, p[1], fbBuf, fbShift, false, lgN, q);
+            mod(b1, b1, p[2], false, lgN, q);
+            mod(out, b1, p[3], true, lgN, q);
+            pure(b1, p[4], false, lgN, q);
+            mod(out, b1, p[5], true, lgN, q);
+        },
+        (out, b1, b2, p, fbBuf, fbShift, lgN, q) -> { // 29
+            fb(b1, p[0], fbBuf, fbShift, false, lgN, q);
+            mod(out, b1, p[1], true, lgN, q);
+            pure(b1, p[2], false, lgN, q);
+            mod(out, b1, p[3], true, lgN, q);
+            pure(out, p[4], true, lgN, q);
+            pure(out, p[5], true, lgN, q);
+        },
+        (out, b1, b2, p, fbBuf, fbShift, lgN, q) -> { // 30
+            pure(out, p[0], true, lgN, q);
+            fb(b1, p[1], fbBuf, fbShift, false, lgN, q);
+            mod(b1, b1, p[2], false, lgN, q);
+            mod(out, b1, p[3], true, lgN, q);
+            pure(out, p[4], true, lgN, q);
+            pure(out, p[5], true, lgN, q);
+        },
+        (out, b1, b2, p, fbBuf, fbShift, lgN, q) -> { // 31
+            fb(b1, p[0], fbBuf, fbShift, false, lgN, q);
+            mod(out, b1, p[1], true, lgN, q);
+            pure(out, p[2], true, lgN, q);
+            pure(out, p[3], true, lgN, q);
+            pure(out, p[4], true, lgN, q);
+            pure(out, p[5], true, lgN, q);
+        },
+        (out, b1, b2, p, fbBuf, fbShift, lgN, q) -> { // 32
+            fb(out, p[0], fbBuf, fbShift, true, lgN, q);
+            pure(out, p[1], true, lgN, q);
+            pure(out, p[2], true, lgN, q);
+            pure(out, p[3], true, lgN, q);
+            pure(out, p[4], true, lgN, q);
+            pure(out, p[5], true, lgN, q);
+        }
+    };
+
+    private int algorithm;
+    private Kernel kernel;
+    private final int lgN;
+
+    // operator buses 1 and 2, the output is bus 0
+    private final int[][] buf;
+    private final boolean[] hasContents = new boolean[3];
+    private final float[][] floatBuf;
+    private final int[] steps = new int[6];
+    private SinQuality quality = SinQuality.LOOKUP;
+
+    /** with the default block size {@link Note#N} */
+    public FmCore(int algorithm) {
+        this(algorithm, Note.LG_N);
+    }
+
+    /**
+     * @param algorithm 0 ~ 31, selects the specialized kernel once
+     * @param lgN log2 of the block size
+     */
+    public FmCore(int algorithm, int lgN) {
+        this.algorithm = algorithm;
+        this.kernel = kernels[algorithm];
+        this.lgN = lgN;
+        this.buf = new int[2][1 << lgN];
+        this.floatBuf = new float[2][1 << lgN];
+    }
+
+    /** for a recycled note, the buffers are kept */
+    public void setAlgorithm(int algorithm) {
+        this.algorithm = algorithm;
+        this.kernel = kernels[algorithm];
+    }
+
+    public void setSinQuality(SinQuality quality) {
+        this.quality = quality;
+    }
+
+    static boolean isAudible(int gain1, int gain2) {
+        return gain1 >= kLevelThresh || gain2 >= kLevelThresh;
+    }
+
+    private static boolean isAllAudible(FmOpParams[] params) {
+        for (int op = 0; op < 6; op++) {
+            if (!isAudible(params[op].gain[0], params[op].gain[1])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // kinds of a plan step
+    static final int SKIP = 0;
+    static final int PURE = 1;
+    static final int FB = 2;
+    static final int MOD = 3;
+
+    /** bit {@code op} is set when the operator writes to the output */
+    static int carriers(int algorithm) {
+        FmAlgorithm alg = algorithms[algorithm];
+        int carriers = 0;
+        for (int op = 0; op < 6; op++) {
+            if ((alg.ops[op] & 3) == 0) {
+                carriers |= 1 << op;
+            }
+        }
+        return carriers;
+    }
+
+    /**
+     * Drops the audible operators which can't reach the output, i.e. the ones
+     * writing to a bus which no live operator reads before it is overwritten,
+     * so that whole modulation subtrees of silent carriers are left out. Self
+     * feedback operators are kept while audible, their history is state. The
+     * output is the same as with all of {@code audible}.
+     *
+     * @param audible bit {@code op} is set when the operator is audible
+     * @param feedback feedbackShift &lt; 16
+     * @return the live subset of {@code audible}
+     */
+    static int cull(int algorithm, int audible, boolean feedback) {
+        return culled[algorithm << 7 | (feedback ? 1 << 6 : 0) | audible];
+    }
+
+    /** {@link #cull(int, int, boolean)} of every algorithm, feedback and audible mask */
+    private static final byte[] culled = new byte[32 << 7];
+
+    static {
+        for (int algorithm = 0; algorithm < 32; algorithm++) {
+            FmAlgorithm alg = algorithms[algorithm];
+            for (int i = 0; i < 1 << 7; i++) {
+                int audible = i & 0x3f;
+                boolean feedback = (i & (1 << 6)) != 0;
+                int needed = 1; // bit per bus, backwards from the output
+                int live = 0;
+                for (int op = 5; op >= 0; op--) {
+                    int flags = alg.ops[op];
+                    int inBus = (flags >> 4) & 3;
+                    int outBus = flags & 3;
+                    boolean neededOut = (needed & (1 << outBus)) != 0;
+                    if ((flags & OUT_BUS_ADD) == 0) {
+                        needed &= ~(1 << outBus);
+                    }
+                    if ((audible & (1 << op)) != 0 && (neededOut || ((flags & 0xc0) == 0xc0 && feedback))) {
+                        live |= 1 << op;
+                        if (inBus != 0) {
+                            needed |= 1 << inBus;
+                        }
+                    }
+                }
+                culled[algorithm << 7 | i] = (byte) live;
+            }
+        }
+    }
+
+    /**
+     * Resolves what the generic path decides for one block, so that voices
+     * with the same decisions can be rendered together. A step is
+     * {@code kind | inBus << 2 | outBus << 4 | add << 6}.
+     *
+     * @param audible bit {@code op} is set when the operator is audible
+     * @param feedback feedbackShift &lt; 16
+     */
+    static void plan(int algorithm, int audible, boolean feedback, int[] steps) {
+        FmAlgorithm alg = algorithms[algorithm];
+        int hasContents = 1; // bit per bus
+        for (int op = 0; op < 6; op++) {
+            int flags = alg.ops[op];
+            boolean add = (flags & OUT_BUS_ADD) != 0;
+            int inBus = (flags >> 4) & 3;
+            int outBus = flags & 3;
+            int kind;
+            if ((audible & (1 << op)) != 0) {
+                if ((hasContents & (1 << outBus)) == 0) {
+                    add = false;
+                }
+                if (inBus == 0 || (hasContents & (1 << inBus)) == 0) {
+                    kind = (flags & 0xc0) == 0xc0 && feedback ? FB : PURE;
+                    inBus = 0;
+                } else {
+                    kind = MOD;
+                }
+                hasContents |= 1 << outBus;
+            } else {
+                if (!add) {
+                    hasContents &= ~(1 << outBus);
+                }
+                kind = SKIP;
+            }
+            steps[op] = kind | inBus << 2 | outBus << 4 | (add ? 1 << 6 : 0);
+        }
+    }
+
+    /**
+     * Relative cpu time of one voice along {@link #plan}, to share voices
+     * out evenly. A pure operator counts 2, a modulated or feedback one 3.
+     */
+    static int cost(int algorithm, int audible, boolean feedback) {
+        return costs[algorithm << 7 | (feedback ? 1 << 6 : 0) | audible];
+    }
+
+    /** {@link #cost(int, int, boolean)} of every algorithm, feedback and audible mask */
+    private static final byte[] costs = new byte[32 << 7];
+
+    static {
+        int[] steps = new int[6];
+        for (int i = 0; i < costs.length; i++) {
+            plan(i >> 7, i & 0x3f, (i & 0x40) != 0, steps);
+            int cost = 0;
+            for (int step : steps) {
+                cost += switch (step & 3) {
+                case PURE -> 2;
+                case FB, MOD -> 3;
+                default -> 0;
+                };
+            }
+            costs[i] = (byte) cost;
+        }
+    }
+
+    /** audible operators of the block, culled */
+    private int live(FmOpParams[] params, int feedbackShift) {
+        int audible = 0;
+        for (int op = 0; op < 6; op++) {
+            if (isAudible(params[op].gain[0], params[op].gain[1])) {
+                audible |= 1 << op;
+            }
+        }
+        return cull(algorithm, audible, feedbackShift < 16);
+    }
+
+    /**
+     * Uses the specialized kernel when every operator is audible, otherwise
+     * runs the culled plan. Both give the same result as the generic path.
+     */
+    public void compute(int[] output, FmOpParams[] params, int[] fbBuf, int feedbackShift) {
+        if (isAllAudible(params)) {
+            kernel.compute(output, buf[0], buf[1], params, fbBuf, feedbackShift, lgN, quality);
+            for (int op = 0; op < 6; op++) {
+                params[op].phase += params[op].freq << lgN;
+            }
+            return;
+        }
+        plan(algorithm, live(params, feedbackShift), feedbackShift < 16, steps);
+        for (int op = 0; op < 6; op++) {
+            int step = steps[op];
+            FmOpParams param = params[op];
+            int outBus = (step >> 4) & 3;
+            int[] outPtr = outBus == 0 ? output : buf[outBus - 1];
+            boolean add = (step & (1 << 6)) != 0;
+            switch (step & 3) {
+            case PURE -> FmOpKernel.computePure(outPtr, param.phase, param.freq, param.gain[0], param.gain[1], add, lgN, quality);
+            case FB -> FmOpKernel.computeFb(outPtr, param.phase, param.freq, param.gain[0], param.gain[1], fbBuf, feedbackShift, add, lgN, quality);
+            case MOD -> FmOpKernel.compute(outPtr, buf[((step >> 2) & 3) - 1], param.phase, param.freq, param.gain[0], param.gain[1], add, lgN, quality);
+            }
+            param.phase += param.freq << lgN;
+        }
+    }
+
+    /** generic path, decodes the algorithm flags for every operator */
     public void compute(int[] output, FmOpParams[] params, int algorithm, int[] fbBuf, int feedbackShift) {
-        final int kLevelThresh = 1120;
         FmAlgorithm alg = algorithms[algorithm];
-        boolean[] hasContents = {
-            true, false, false
-        };
+        hasContents[0] = true;
+        hasContents[1] = false;
+        hasContents[2] = false;
         for (int op = 0; op < 6; op++) {
             int flags = alg.ops[op];
             boolean add = (flags & OUT_BUS_ADD) != 0;
             FmOpParams param = params[op];
             int inBus = (flags >> 4) & 3;
             int outBus = flags & 3;
-            int[] outPtr = (outBus == 0) ? output : output; // maybe align or not
+            int[] outPtr = (outBus == 0) ? output : buf[outBus - 1];
             int gain1 = param.gain[0];
             int gain2 = param.gain[1];
             if (gain1 >= kLevelThresh || gain2 >= kLevelThresh) {
@@ -138,20 +645,44 @@ class FmCore {
                     // TODO more than one op in a feedback loop
                     if ((flags & 0xc0) == 0xc0 && feedbackShift < 16) {
                         // logger.log(Level.DEBUG, op + " fb " + inBus + outBus + add);
-                        FmOpKernel.computeFb(outPtr, param.phase, param.freq, gain1, gain2, fbBuf, feedbackShift, add);
+                        FmOpKernel.computeFb(outPtr, param.phase, param.freq, gain1, gain2, fbBuf, feedbackShift, add, lgN, quality);
                     } else {
                         // logger.log(Level.DEBUG, op + " pure " + inBus + outBus + add);
-                        FmOpKernel.computePure(outPtr, param.phase, param.freq, gain1, gain2, add);
+                        FmOpKernel.computePure(outPtr, param.phase, param.freq, gain1, gain2, add, lgN, quality);
                     }
                 } else {
                     // logger.log(Level.DEBUG, op + " normal " + inBus + outBus + " " + param.freq + add);
-                    FmOpKernel.compute(outPtr, outPtr, param.phase, param.freq, gain1, gain2, add); // TODO 2nd outPtr
+                    FmOpKernel.compute(outPtr, buf[inBus - 1], param.phase, param.freq, gain1, gain2, add, lgN, quality);
                 }
                 hasContents[outBus] = true;
             } else if (!add) {
                 hasContents[outBus] = false;
             }
-            param.phase += param.freq << Note.LG_N;
+            param.phase += param.freq << lgN;
+        }
+    }
+
+    /**
+     * Float path, carriers are added to {@code output[offset, offset + n)}.
+     * Takes the same decisions as the generic path.
+     *
+     * @param fbBuf float feedback history
+     */
+    public void compute(float[] output, int offset, FmOpParams[] params, float[] fbBuf, int feedbackShift) {
+        plan(algorithm, live(params, feedbackShift), feedbackShift < 16, steps);
+        for (int op = 0; op < 6; op++) {
+            int step = steps[op];
+            FmOpParams param = params[op];
+            int outBus = (step >> 4) & 3;
+            float[] outPtr = outBus == 0 ? output : floatBuf[outBus - 1];
+            int outOffset = outBus == 0 ? offset : 0;
+            boolean add = (step & (1 << 6)) != 0;
+            switch (step & 3) {
+            case PURE -> FmOpKernel.computePure(outPtr, outOffset, param.phase, param.freq, param.gain[0], param.gain[1], add, lgN, quality);
+            case FB -> FmOpKernel.computeFb(outPtr, outOffset, param.phase, param.freq, param.gain[0], param.gain[1], fbBuf, feedbackShift, add, lgN, quality);
+            case MOD -> FmOpKernel.compute(outPtr, outOffset, floatBuf[((step >> 2) & 3) - 1], param.phase, param.freq, param.gain[0], param.gain[1], add, lgN, quality);
+            }
+            param.phase += param.freq << lgN;
         }
     }
 }
@@ -16,73 +16,102 @@
 
 package vavi.sound.dx7;
 
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+
+import static java.lang.System.getLogger;
+
 
 class FmOpKernel {
 
+    private static final Logger logger = getLogger(FmOpKernel.class.getName());
+
+    /** with the default block size {@link Note#N} and {@link SinQuality#LOOKUP} */
     public static void compute(int[] output, int[] input, int phase0, int freq, int gain1, int gain2, boolean add) {
-        int dGain = (gain2 - gain1 + (Note.N >> 1)) >> Note.LG_N;
+        compute(output, input, phase0, freq, gain1, gain2, add, Note.LG_N, SinQuality.LOOKUP);
+    }
+
+    /** with the default block size {@link Note#N} and {@link SinQuality#LOOKUP} */
+    public static void computePure(int[] output, int phase0, int freq, int gain1, int gain2, boolean add) {
+        computePure(output, phase0, freq, gain1, gain2, add, Note.LG_N, SinQuality.LOOKUP);
+    }
+
+    /** with the default block size {@link Note#N} and {@link SinQuality#LOOKUP} */
+    public static void computeFb(int[] output, int phase0, int freq, int gain1, int gain2, int[] fbBuf, int fb_shift, boolean add) {
+        computeFb(output, phase0, freq, gain1, gain2, fbBuf, fb_shift, add, Note.LG_N, SinQuality.LOOKUP);
+    }
+
+    /**
+     * @param lgN log2 of the block size
+     * @param quality sine tier
+     */
+    public static void compute(int[] output, int[] input, int phase0, int freq, int gain1, int gain2, boolean add, int lgN, SinQuality quality) {
+        int n = 1 << lgN;
+        int dGain = (gain2 - gain1 + (n >> 1)) >> lgN;
         int gain = gain1;
         int phase = phase0;
         if (add) {
-            for (int i = 0; i < Note.N; i++) {
+            for (int i = 0; i < n; i++) {
                 gain += dGain;
-                int y = Sin.lookup(phase + input[i]);
+                int y = Sin.sin(phase + input[i], quality);
                 output[i] += (int) (((long) y * (long) gain) >> 24);
                 phase += freq;
             }
         } else {
-            for (int i = 0; i < Note.N; i++) {
+            for (int i = 0; i < n; i++) {
                 gain += dGain;
-                int y = Sin.lookup(phase + input[i]);
+                int y = Sin.sin(phase + input[i], quality);
                 output[i] = (int) (((long) y * (long) gain) >> 24);
                 phase += freq;
             }
         }
     }
 
-    public static void computePure(int[] output, int phase0, int freq, int gain1, int gain2, boolean add) {
-        int dGain = (gain2 - gain1 + (Note.N >> 1)) >> Note.LG_N;
+    public static void computePure(int[] output, int phase0, int freq, int gain1, int gain2, boolean add, int lgN, SinQuality quality) {
+        int n = 1 << lgN;
+        int dGain = (gain2 - gain1 + (n >> 1)) >> lgN;
         int gain = gain1;
         int phase = phase0;
         if (add) {
-            for (int i = 0; i < Note.N; i++) {
+            for (int i = 0; i < n; i++) {
                 gain += dGain;
-                int y = Sin.lookup(phase);
+                int y = Sin.sin(phase, quality);
                 output[i] += (int) (((long) y * (long) gain) >> 24);
                 phase += freq;
             }
         } else {
-            for (int i = 0; i < Note.N; i++) {
+            for (int i = 0; i < n; i++) {
                 gain += dGain;
-                int y = Sin.lookup(phase);
+                int y = Sin.sin(phase, quality);
                 output[i] = (int) (((long) y * (long) gain) >> 24);
                 phase += freq;
             }
         }
     }
 
-    public static void computeFb(int[] output, int phase0, int freq, int gain1, int gain2, int[] fbBuf, int fb_shift, boolean add) {
-        int dGain = (gain2 - gain1 + (Note.N >> 1)) >> Note.LG_N;
+    public static void computeFb(int[] output, int phase0, int freq, int gain1, int gain2, int[] fbBuf, int fb_shift, boolean add, int lgN, SinQuality quality) {
+        int n = 1 << lgN;
+        int dGain = (gain2 - gain1 + (n >> 1)) >> lgN;
         int gain = gain1;
         int phase = phase0;
         int y0 = fbBuf[0];
         int y = fbBuf[1];
         if (add) {
-            for (int i = 0; i < Note.N; i++) {
+            for (int i = 0; i < n; i++) {
                 gain += dGain;
                 int scaled_fb = (y0 + y) >> (fb_shift + 1);
                 y0 = y;
-                y = Sin.lookup(phase + scaled_fb);
+                y = Sin.sin(phase + scaled_fb, quality);
                 y = (int) (((long) y * (long) gain) >> 24);
                 output[i] += y;
                 phase += freq;
             }
         } else {
-            for (int i = 0; i < Note.N; i++) {
+            for (int i = 0; i < n; i++) {
                 gain += dGain;
                 int scaled_fb = (y0 + y) >> (fb_shift + 1);
                 y0 = y;
-                y = Sin.lookup(phase + scaled_fb);
+                y = Sin.sin(phase + scaled_fb, quality);
                 y = (int) (((long) y * (long) gain) >> 24);
                 output[i] = y;
                 phase += freq;
@@ -91,4 +120,179 @@ class FmOpKernel {
         fbBuf[0] = y0;
         fbBuf[1] = y;
     }
+
+    /** Q24 to float, 1.0 is full scale */
+    static final float Q24 = 1f / (1 << 24);
+
+    /**
+     * Float version of {@link #compute(int[], int[], int, int, int, int, boolean, int, SinQuality)},
+     * writes {@code output[offset, offset + n)}. Gains are Q24 ints as the
+     * envelopes give them, phase modulation is converted back to Q24.
+     */
+    public static void compute(float[] output, int offset, float[] input, int phase0, int freq, int gain1, int gain2, boolean add, int lgN, SinQuality quality) {
+        float gain = gain1 * Q24;
+        int n = 1 << lgN;
+        float dGain = (gain2 - gain1) * (Q24 / n);
+        int phase = phase0;
+        for (int i = 0; i < n; i++) {
+            gain += dGain;
+            float y = Sin.sinFloat(phase + (int) (input[i] * (1 << 24)), quality) * gain;
+            output[offset + i] = add ? output[offset + i] + y : y;
+            phase += freq;
+        }
+    }
+
+    /** float version of {@link #computePure(int[], int, int, int, int, boolean, int, SinQuality)} */
+    public static void computePure(float[] output, int offset, int phase0, int freq, int gain1, int gain2, boolean add, int lgN, SinQuality quality) {
+        float gain = gain1 * Q24;
+        int n = 1 << lgN;
+        float dGain = (gain2 - gain1) * (Q24 / n);
+        int phase = phase0;
+        for (int i = 0; i < n; i++) {
+            gain += dGain;
+            float y = Sin.sinFloat(phase, quality) * gain;
+            output[offset + i] = add ? output[offset + i] + y : y;
+            phase += freq;
+        }
+    }
+
+    /** float version of {@link #computeFb(int[], int, int, int, int, int[], int, boolean, int, SinQuality)} */
+    public static void computeFb(float[] output, int offset, int phase0, int freq, int gain1, int gain2, float[] fbBuf, int fbShift, boolean add, int lgN, SinQuality quality) {
+        float gain = gain1 * Q24;
+        int n = 1 << lgN;
+        float dGain = (gain2 - gain1) * (Q24 / n);
+        float fbScale = 1 << (24 - fbShift - 1);
+        int phase = phase0;
+        float y0 = fbBuf[0];
+        float y = fbBuf[1];
+        for (int i = 0; i < n; i++) {
+            gain += dGain;
+            int scaledFb = (int) ((y0 + y) * fbScale);
+            y0 = y;
+            y = Sin.sinFloat(phase + scaledFb, quality) * gain;
+            output[offset + i] = add ? output[offset + i] + y : y;
+            phase += freq;
+        }
+        fbBuf[0] = y0;
+        fbBuf[1] = y;
+    }
+
+    /**
+     * Computes the same operator slot of {@code n} voices at once. Voices are
+     * independent, so this is where lanes can be used. Buffers are interleaved,
+     * sample {@code i} of voice {@code v} is at {@code i * n + v}, and the
+     * feedback buffer holds the older samples at {@code [0, n)} and the newer
+     * ones at {@code [n, 2n)}. Results are the same as the single voice kernels.
+     * The block size is fixed per instance.
+     */
+    interface Lanes {
+
+        /** the number of voices a backend processes in one lane group */
+        int width();
+
+        void compute(int[] output, int[] input, int[] phase, int[] freq, int[] gain1, int[] gain2, int n, boolean add);
+
+        void computePure(int[] output, int[] phase, int[] freq, int[] gain1, int[] gain2, int n, boolean add);
+
+        void computeFb(int[] output, int[] phase, int[] freq, int[] gain1, int[] gain2, int[] fbBuf, int[] fbShift, int n, boolean add);
+    }
+
+    /**
+     * Returns the {@code jdk.incubator.vector} backend when the module is
+     * present and {@code vavi.sound.dx7.vector} is not {@code false},
+     * otherwise the scalar one. Instances are not thread safe.
+     *
+     * @param lgN log2 of the block size
+     * @param quality sine tier, the vector backend does {@link SinQuality#LOOKUP} and {@link SinQuality#TABLE}
+     */
+    static Lanes newLanes(int lgN, SinQuality quality) {
+        if ((quality == SinQuality.LOOKUP || quality == SinQuality.TABLE) &&
+            ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent() &&
+            Boolean.parseBoolean(System.getProperty("vavi.sound.dx7.vector", "true"))) {
+            try {
+                return (Lanes) Class.forName(FmOpKernel.class.getPackageName() + ".VectorFmOpKernel")
+                        .getDeclaredConstructor(int.class, SinQuality.class).newInstance(lgN, quality);
+            } catch (ReflectiveOperationException | LinkageError e) {
+                logger.log(Level.DEBUG, "vector backend unavailable: " + e);
+            }
+        }
+        return new ScalarLanes(lgN, quality);
+    }
+
+    /** voice by voice, also the tail of a vector backend */
+    static class ScalarLanes implements Lanes {
+
+        private final int lgN;
+        private final int blockSize;
+        private final SinQuality quality;
+
+        ScalarLanes(int lgN, SinQuality quality) {
+            this.lgN = lgN;
+            this.blockSize = 1 << lgN;
+            this.quality = quality;
+        }
+
+        @Override
+        public int width() {
+            return 1;
+        }
+
+        @Override
+        public void compute(int[] output, int[] input, int[] phase, int[] freq, int[] gain1, int[] gain2, int n, boolean add) {
+            for (int v = 0; v < n; v++) {
+                int dGain = (gain2[v] - gain1[v] + (blockSize >> 1)) >> lgN;
+                int gain = gain1[v];
+                int ph = phase[v];
+                int f = freq[v];
+                for (int i = 0, j = v; i < blockSize; i++, j += n) {
+                    gain += dGain;
+                    int y = Sin.sin(ph + input[j], quality);
+                    y = (int) (((long) y * (long) gain) >> 24);
+                    output[j] = add ? output[j] + y : y;
+                    ph += f;
+                }
+            }
+        }
+
+        @Override
+        public void computePure(int[] output, int[] phase, int[] freq, int[] gain1, int[] gain2, int n, boolean add) {
+            for (int v = 0; v < n; v++) {
+                int dGain = (gain2[v] - gain1[v] + (blockSize >> 1)) >> lgN;
+                int gain = gain1[v];
+                int ph = phase[v];
+                int f = freq[v];
+                for (int i = 0, j = v; i < blockSize; i++, j += n) {
+                    gain += dGain;
+                    int y = Sin.sin(ph, quality);
+                    y = (int) (((long) y * (long) gain) >> 24);
+                    output[j] = add ? output[j] + y : y;
+                    ph += f;
+                }
+            }
+        }
+
+        @Override
+        public void computeFb(int[] output, int[] phase, int[] freq, int[] gain1, int[] gain2, int[] fbBuf, int[] fbShift, int n, boolean add) {
+            for (int v = 0; v < n; v++) {
+                int dGain = (gain2[v] - gain1[v] + (blockSize >> 1)) >> lgN;
+                int gain = gain1[v];
+                int ph = phase[v];
+                int f = freq[v];
+                int shift = fbShift[v] + 1;
+                int y0 = fbBuf[v];
+                int y = fbBuf[n + v];
+                for (int i = 0, j = v; i < blockSize; i++, j += n) {
+                    gain += dGain;
+                    int scaledFb = (y0 + y) >> shift;
+                    y0 = y;
+                    y = Sin.sin(ph + scaledFb, quality);
+                    y = (int) (((long) y * (long) gain) >> 24);
+                    output[j] = add ? output[j] + y : y;
+                    ph += f;
+                }
+                fbBuf[v] = y0;
+                fbBuf[n + v] = y;
+            }
+        }
+    }
 }
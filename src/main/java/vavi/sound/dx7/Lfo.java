@@ -19,6 +19,9 @@ package vavi.sound.dx7;
 
 /**
  * Low frequency oscillator, compatible with DX7
+ * <p>
+ * The original DX7 had one single LFO. Later units had an LFO per note.
+ * Each synth keeps its own.
  */
 public class Lfo {
 
@@ -32,11 +35,19 @@ public class Lfo {
     private long delayInc;
     private long delayInc2;
 
-    private static long unit;
+    private final long unit;
 
-    Lfo(double sampleRate) {
+    /** steps once a block of the context */
+    public Lfo(Context context) {
+        this(context.sampleRate, context.n);
+    }
+
+    /**
+     * @param n block size, the lfo steps once a block
+     */
+    Lfo(double sampleRate, int n) {
         // constant is 1 << 32 / 15.5s / 11
-        unit = (int) (Note.N * 25190424 / sampleRate + 0.5);
+        unit = (int) (n * 25190424.0 / sampleRate + 0.5);
     }
 
     public void reset(byte[] params, int ofs) {
@@ -108,4 +119,11 @@ public class Lfo {
         }
         delayState = 0;
     }
+
+    /** whether this goes on the same as {@code other} */
+    boolean isSameAs(Lfo other) {
+        return phase == other.phase && delta == other.delta && waveform == other.waveform &&
+                randState == other.randState && sync == other.sync && delayState == other.delayState &&
+                delayInc == other.delayInc && delayInc2 == other.delayInc2 && unit == other.unit;
+    }
 }
@@ -16,29 +16,27 @@
 
 package vavi.sound.dx7;
 
-import java.lang.System.Logger;
-import java.lang.System.Logger.Level;
-
-import static java.lang.System.getLogger;
-
 
 public class Note {
 
-    private static final Logger logger = getLogger(Note.class.getName());
-
+    /** default block size, see {@link Context#getInstance(float, int)} */
     public static final int LG_N = 6;
     public static final int N = 1 << LG_N;
 
-    private final FmCore core = new FmCore();
+    private final FmCore core;
+    /** of this note alone */
+    private final PitchEnv pitchEnv;
     private final Env[] env = new Env[6];
     private final FmCore.FmOpParams[] params_ = new FmCore.FmOpParams[6];
     private final Context context;
     private final int[] basepitch_ = new int[6];
     private final int[] fb_buf_ = new int[2];
-    private final int fbShift;
-    private final int algorithm;
-    private final int pitchModDepth;
-    private final int pitchModSens;
+    private final float[] fbBufFloat = new float[2];
+    private int fbShift;
+    private int algorithm;
+    private int pitchModDepth;
+    private int pitchModSens;
+    private int operators;
 
     private static int midiNoteToLogFreq(int midiNote) {
         final int base = 50857777; // (1 << 24) * (log(440) / log(2) - 69/12)
@@ -136,61 +134,119 @@ public class Note {
         0, 10, 20, 33, 55, 92, 153, 255
     };
 
-    public Note(Context context, byte[] patch, int midiNote, int velocity) {
-        this.context = context;
-        int[] rates = new int[4];
+    /** output level of an operator in microsteps, as {@link Env} takes it */
+    static int outLevel(byte[] patch, int op, int midiNote, int velocity) {
+        return Math.max(0, keyLevel(patch, op, midiNote) + velocityLevel(patch, op, velocity));
+    }
+
+    /** the key dependent part of {@link #outLevel(byte[], int, int, int)} */
+    static int keyLevel(byte[] patch, int op, int midiNote) {
+        int off = op * 21;
+        int outLevel = patch[off + 16];
+        outLevel = Env.scaleOutLevel(outLevel);
+        int scaleLevel = scaleLevel(midiNote,
+                                    patch[off + 8],
+                                    patch[off + 9],
+                                    patch[off + 10],
+                                    patch[off + 11],
+                                    patch[off + 12]);
+        outLevel += scaleLevel;
+        outLevel = Math.min(127, outLevel);
+        return outLevel << 5;
+    }
+
+    /** the velocity dependent part of {@link #outLevel(byte[], int, int, int)} */
+    static int velocityLevel(byte[] patch, int op, int velocity) {
+        return scaleVelocity(velocity, patch[op * 21 + 15]);
+    }
+
+    static int rateScaling(byte[] patch, int op, int midiNote) {
+        return scaleRate(midiNote, patch[op * 21 + 13]);
+    }
+
+    /** base pitch of an operator in Q24 log frequency */
+    static int basePitch(byte[] patch, int op, int midiNote) {
+        int off = op * 21;
+        int mode = patch[off + 17];
+        int coarse = patch[off + 18];
+        int fine = patch[off + 19];
+        int detune = patch[off + 20];
+        return oscFreq(midiNote, mode, coarse, fine, detune);
+    }
+
+    static int fbShift(byte[] patch) {
+        int feedback = patch[135];
+        return feedback != 0 ? 8 - feedback : 16;
+    }
+
+    static int pitchModDepth(byte[] patch) {
+        return (patch[139] * 165) >> 6;
+    }
+
+    static int pitchModSens(byte[] patch) {
+        return pitchModSensTab[patch[143] & 7];
+    }
+
+    /**
+     * Operators which can sound at all, bit {@code op} is cleared when the
+     * operator is switched off by the patch ({@code patch[155]}) or when its
+     * envelope never gets over the audibility threshold.
+     */
+    static int operators(byte[] patch, int midiNote, int velocity) {
+        int operators = 0;
         int[] levels = new int[4];
         for (int op = 0; op < 6; op++) {
-            int off = op * 21;
-            for (int i = 0; i < 4; i++) {
-                rates[i] = patch[off + i];
-                levels[i] = patch[off + 4 + i];
+            if ((patch[155] & (1 << op)) != 0) {
+                for (int i = 0; i < 4; i++) {
+                    levels[i] = patch[op * 21 + 4 + i];
+                }
+                int maxLevel = Env.maxLevel(levels, outLevel(patch, op, midiNote, velocity));
+                if (FmCore.isAudible(0, Exp2.lookup(maxLevel - (14 * (1 << 24))))) {
+                    operators |= 1 << op;
+                }
             }
-            int outLevel = patch[off + 16];
-            outLevel = Env.scaleOutLevel(outLevel);
+        }
+        return operators;
+    }
 
-            for (int j = 8; j < 12; j++) {
-                logger.log(Level.DEBUG, patch[off + j] + " ");
-            }
+    public Note(Context context, byte[] patch, int midiNote, int velocity) {
+        this(context, CompiledPatch.of(patch), midiNote, velocity);
+    }
 
-            int scaleLevel = scaleLevel(midiNote,
-                                        patch[off + 8],
-                                        patch[off + 9],
-                                        patch[off + 10],
-                                        patch[off + 11],
-                                        patch[off + 12]);
-            outLevel += scaleLevel;
-            outLevel = Math.min(127, outLevel);
-
-            logger.log(Level.DEBUG, op + ": " + scaleLevel + " " + outLevel);
-
-            outLevel = outLevel << 5;
-            outLevel += scaleVelocity(velocity, patch[off + 15]);
-            outLevel = Math.max(0, outLevel);
-            int rateScaling = scaleRate(midiNote, patch[off + 13]);
-            env[op] = new Env(rates, levels, outLevel, rateScaling);
-
-            int mode = patch[off + 17];
-            int coarse = patch[off + 18];
-            int fine = patch[off + 19];
-            int detune = patch[off + 20];
-            int freq = oscFreq(midiNote, mode, coarse, fine, detune);
-            basepitch_[op] = freq;
-            // cout << op << " freq: " << freq << endl;
+    public Note(Context context, CompiledPatch patch, int midiNote, int velocity) {
+        this.context = context;
+        this.pitchEnv = new PitchEnv(context.sampleRate, context.n);
+        for (int op = 0; op < 6; op++) {
+            env[op] = new Env(patch.rates[op], patch.levels[op], patch.outLevel(op, midiNote, velocity), patch.rateScaling(op, midiNote), context.lgN);
             params_[op] = new FmCore.FmOpParams();
+        }
+        core = new FmCore(patch.algorithm, context.lgN);
+        reset(patch, midiNote, velocity);
+    }
+
+    /**
+     * Starts over as a new note, without allocation. The sine quality is
+     * kept.
+     */
+    public void reset(CompiledPatch patch, int midiNote, int velocity) {
+        for (int op = 0; op < 6; op++) {
+            env[op].reset(patch.rates[op], patch.levels[op], patch.outLevel(op, midiNote, velocity), patch.rateScaling(op, midiNote), context.lgN);
+            basepitch_[op] = patch.basePitch(op, midiNote);
+            // cout << op << " freq: " << freq << endl;
             params_[op].phase = 0;
             params_[op].gain[1] = 0;
         }
-        for (int i = 0; i < 4; i++) {
-            rates[i] = patch[126 + i];
-            levels[i] = patch[130 + i];
-        }
-        context.pitchEnv.set(rates, levels);
-        algorithm = patch[134];
-        int feedback = patch[135];
-        fbShift = feedback != 0 ? 8 - feedback : 16;
-        pitchModDepth = (patch[139] * 165) >> 6;
-        pitchModSens = pitchModSensTab[patch[143] & 7];
+        fb_buf_[0] = 0;
+        fb_buf_[1] = 0;
+        fbBufFloat[0] = 0;
+        fbBufFloat[1] = 0;
+        pitchEnv.set(patch.pitchRates, patch.pitchLevels);
+        algorithm = patch.algorithm;
+        core.setAlgorithm(algorithm);
+        fbShift = patch.fbShift;
+        pitchModDepth = patch.pitchModDepth;
+        pitchModSens = patch.pitchModSens;
+        operators = patch.operators(midiNote, velocity);
     }
 
     static final int kControllerPitch = 128;
@@ -203,7 +259,22 @@ public class Note {
     }
 
     public void compute(int[] buf, int lfoVal, int lfoDelay, Controllers ctrls) {
-        int pitchMod = context.pitchEnv.getSample();
+        update(lfoVal, lfoDelay, ctrls);
+        core.compute(buf, params_, fb_buf_, fbShift);
+    }
+
+    /**
+     * Float path, adds one block to {@code buf[offset, offset + context.n)}.
+     * 1.0 is the Q24 full scale.
+     */
+    public void compute(float[] buf, int offset, int lfoVal, int lfoDelay, Controllers ctrls) {
+        update(lfoVal, lfoDelay, ctrls);
+        core.compute(buf, offset, params_, fbBufFloat, fbShift);
+    }
+
+    /** steps pitch and envelopes one block */
+    private void update(int lfoVal, int lfoDelay, Controllers ctrls) {
+        int pitchMod = pitchEnv.getSample();
         long pmd = (long) pitchModDepth * lfoDelay; // Q32
         // TODO: add modulation sources (mod wheel, etc)
         int sensLfo = pitchModSens * (lfoVal - (1 << 23));
@@ -215,19 +286,28 @@ public class Note {
         pitchMod += pb;
         for (int op = 0; op < 6; op++) {
             params_[op].gain[0] = params_[op].gain[1];
-            int level = env[op].getSample();
-            int gain = Exp2.lookup(level - (14 * (1 << 24)));
-            // int gain = pow(2, 10 + level * (1.0 / (1 << 24)));
+            if ((operators & (1 << op)) == 0) {
+                continue; // stays silent, gains are 0
+            }
+            if (!env[op].isHeld()) { // otherwise the gain is the last one
+                int level = env[op].getSample();
+                int gain = Exp2.lookup(level - (14 * (1 << 24)));
+                // int gain = pow(2, 10 + level * (1.0 / (1 << 24)));
+                params_[op].gain[1] = gain;
+            }
             params_[op].freq = context.freqLut.lookup(basepitch_[op] + pitchMod);
-            params_[op].gain[1] = gain;
         }
-        core.compute(buf, params_, algorithm, fb_buf_, fbShift);
+    }
+
+    /** per voice, {@link SinQuality#LOOKUP} by default */
+    public void setSinQuality(SinQuality quality) {
+        core.setSinQuality(quality);
     }
 
     public void keyUp() {
         for (int op = 0; op < 6; op++) {
             env[op].keyDown(false);
-            context.pitchEnv.keyDown(false);
         }
+        pitchEnv.keyDown(false);
     }
 }
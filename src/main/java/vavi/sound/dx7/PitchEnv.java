@@ -19,20 +19,28 @@ package vavi.sound.dx7;
 
 public class PitchEnv {
 
-    private final int[] rates = new int[4];
-    private final int[] levels = new int[4];
-    private int level;
-    private int targetLevel;
-    private boolean rising;
-    private int ix;
-    private int inc;
+    // one pitch envelope in a flat int array, see Env
+    private static final int RATES = 0;
+    private static final int LEVELS = 4;
+    private static final int LEVEL = 8;
+    private static final int TARGET_LEVEL = 9;
+    private static final int RISING = 10;
+    private static final int IX = 11;
+    private static final int INC = 12;
+    private static final int DOWN = 13;
+    private static final int UNIT = 14;
+    /** ints used by one pitch envelope */
+    static final int STRIDE = 16;
 
-    private boolean down;
+    private final int[] state = new int[STRIDE];
 
-    private final int unit;
+    PitchEnv(double sampleRate, int n) {
+        state[UNIT] = unit(sampleRate, n);
+    }
 
-    PitchEnv(double sampleRate) {
-        unit = (int) (Note.N * (1 << 24) / (21.3 * sampleRate) + 0.5);
+    /** @param n block size, the envelope steps once a block */
+    static int unit(double sampleRate, int n) {
+        return (int) (n * (double) (1 << 24) / (21.3 * sampleRate) + 0.5);
     }
 
     private static final int[] rateTab = {
@@ -50,49 +58,118 @@ public class PitchEnv {
     };
 
     public void set(int[] r, int[] l) {
+        set(state, 0, state[UNIT], r, l);
+    }
+
+    static void set(int[] s, int o, int unit, int[] r, int[] l) {
         for (int i = 0; i < 4; i++) {
-            rates[i] = r[i];
-            levels[i] = l[i];
+            s[o + RATES + i] = r[i];
+            s[o + LEVELS + i] = l[i];
         }
-        level = pitchTab[l[3]] << 19;
-        down = true;
-        advance(0);
+        s[o + UNIT] = unit;
+        s[o + LEVEL] = pitchTab[l[3]] << 19;
+        s[o + DOWN] = 1;
+        advance(s, o, 0);
     }
 
     public int getSample() {
-        if (ix < 3 || (ix < 4) && !down) {
-            if (rising) {
-                level += inc;
-                if (level >= targetLevel) {
-                    level = targetLevel;
-                    advance(ix + 1);
-                }
+        return getSample(state, 0);
+    }
+
+    static int getSample(int[] s, int o) {
+        int ix = s[o + IX];
+        int level = s[o + LEVEL];
+        if (ix < 3 || (ix < 4) && s[o + DOWN] == 0) {
+            int targetLevel = s[o + TARGET_LEVEL];
+            boolean reached;
+            if (s[o + RISING] != 0) {
+                level += s[o + INC];
+                reached = level >= targetLevel;
             } else { // !rising
-                level -= inc;
-                if (level <= targetLevel) {
-                    level = targetLevel;
-                    advance(ix + 1);
-                }
+                level -= s[o + INC];
+                reached = level <= targetLevel;
+            }
+            if (reached) {
+                level = targetLevel;
+            }
+            s[o + LEVEL] = level;
+            if (reached) {
+                advance(s, o, ix + 1);
             }
         }
         return level;
     }
 
+    /** the level holds, {@link #getSample} returns it until the key changes */
+    static boolean isHeld(int[] s, int o) {
+        int ix = s[o + IX];
+        return !(ix < 3 || (ix < 4) && s[o + DOWN] == 0);
+    }
+
+    /**
+     * Number of {@link #getSample} calls until the current segment reaches its
+     * target, the reaching one included, {@link Integer#MAX_VALUE} while the
+     * level holds.
+     */
+    static int blocksLeft(int[] s, int o) {
+        if (isHeld(s, o)) {
+            return Integer.MAX_VALUE;
+        }
+        int inc = s[o + INC];
+        long distance = s[o + RISING] != 0 ? (long) s[o + TARGET_LEVEL] - s[o + LEVEL] : (long) s[o + LEVEL] - s[o + TARGET_LEVEL];
+        if (distance <= 0) {
+            return 1;
+        }
+        return inc > 0 ? (int) Math.min(Integer.MAX_VALUE, (distance + inc - 1) / inc) : Integer.MAX_VALUE;
+    }
+
+    public int blocksLeft() {
+        return blocksLeft(state, 0);
+    }
+
+    /** the state after {@code blocks} calls of {@link #getSample}, segment by segment */
+    static void skip(int[] s, int o, int blocks) {
+        while (blocks > 0 && !isHeld(s, o)) {
+            int left = blocksLeft(s, o);
+            if (left <= blocks) {
+                s[o + LEVEL] = s[o + TARGET_LEVEL];
+                advance(s, o, s[o + IX] + 1);
+                blocks -= left;
+            } else {
+                s[o + LEVEL] += (s[o + RISING] != 0 ? blocks : -blocks) * s[o + INC];
+                blocks = 0;
+            }
+        }
+    }
+
+    public void skip(int blocks) {
+        skip(state, 0, blocks);
+    }
+
     public void keyDown(boolean d) {
-        if (down != d) {
-            down = d;
-            advance(d ? 0 : 3);
+        keyDown(state, 0, d);
+    }
+
+    static void keyDown(int[] s, int o, boolean d) {
+        if ((s[o + DOWN] != 0) != d) {
+            s[o + DOWN] = d ? 1 : 0;
+            advance(s, o, d ? 0 : 3);
         }
     }
 
     public void advance(int newIx) {
-        ix = newIx;
-        if (ix < 4) {
-            int newLevel = levels[ix];
-            targetLevel = pitchTab[newLevel] << 19;
-            rising = (targetLevel > level);
+        advance(state, 0, newIx);
+    }
+
+    private static void advance(int[] s, int o, int newIx) {
+        s[o + IX] = newIx;
+        if (newIx < 4) {
+            int newLevel = s[o + LEVELS + newIx];
+            int targetLevel = pitchTab[newLevel] << 19;
+            s[o + TARGET_LEVEL] = targetLevel;
+            s[o + RISING] = targetLevel > s[o + LEVEL] ? 1 : 0;
 
-            inc = rateTab[rates[ix]] * unit;
+            s[o + INC] = rateTab[s[o + RATES + newIx]] * s[o + UNIT];
         }
     }
 }
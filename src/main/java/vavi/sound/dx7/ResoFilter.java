@@ -16,6 +16,8 @@
 
 package vavi.sound.dx7;
 
+import java.util.Arrays;
+
 
 /**
  * Resonant filter implementation. This closely follows "Non-Linear
@@ -31,6 +33,11 @@ public class ResoFilter {
     private final int[] w = new int[4];
     private int yy;
 
+    // state of the float path
+    private final float[] xFloat = new float[4];
+    private final float[] wFloat = new float[4];
+    private float yyFloat;
+
     private final Context context;
 
     public ResoFilter(Context context) {
@@ -41,6 +48,22 @@ public class ResoFilter {
         this.context = context;
     }
 
+    /** forgets the past input, the state of a new one */
+    public void reset() {
+        Arrays.fill(x, 0);
+        Arrays.fill(w, 0);
+        yy = 0;
+        Arrays.fill(xFloat, 0);
+        Arrays.fill(wFloat, 0);
+        yyFloat = 0;
+    }
+
+    /** whether the state is the same as {@code other}'s */
+    boolean isSameAs(ResoFilter other) {
+        return Arrays.equals(x, other.x) && Arrays.equals(w, other.w) && yy == other.yy &&
+                Arrays.equals(xFloat, other.xFloat) && Arrays.equals(wFloat, other.wFloat) && yyFloat == other.yyFloat;
+    }
+
     private int computeAlpha(int logf) {
         return Math.min(1 << 24, context.freqLut.lookup(logf));
     }
@@ -73,9 +96,9 @@ public class ResoFilter {
         dst[dP + 3] = a[aP + 3] * b[bP + 0] + a[aP + 7] * b[bP + 1] + a[aP + 11] * b[bP + 2] + a[aP + 15] * b[bP + 3];
     }
 
-    private static void vecUpdate4(float[] dst, float x, float[] a) {
+    private static void vecUpdate4(float[] dst, int dP, float x, float[] a, int aP) {
         for (int i = 0; i < 4; i++) {
-            dst[i] += x * a[i];
+            dst[i + dP] += x * a[i + aP];
         }
     }
 
@@ -97,7 +120,16 @@ public class ResoFilter {
         }
     }
 
-    private static void makeStateTransition(float[] result, int f0, int k) {
+    private static final float[] scales = { 1.0f, 1 / 2.0f, 1 / 6.0f, 1 / 24.0f };
+
+    // offsets of the 5x4 matrices in the work area of makeStateTransition
+    private static final int J = 0;
+    private static final int A = 20;
+    private static final int C = 40;
+    private static final int TMP = 60;
+
+    /** @param work 80 floats of scratch, so that nothing is allocated */
+    private static void makeStateTransition(float[] result, int f0, int k, float[] work) {
         // TODO: these should depend on k, and be just enough to meet error bound
         int n1 = 4;
         int n2 = 4;
@@ -107,80 +139,78 @@ public class ResoFilter {
 
         // these are 5x5 matrices of which we store the bottom 5x4
         // Top row of Jacobian is all zeros
-        float[] j = new float[20];
+        Arrays.fill(work, 0);
 
         // set up initial jacobian
-        j[0] = f;
-        j[4] = -f;
-        j[5] = f;
-        j[9] = -f;
-        j[10] = f;
-        j[14] = -f;
-        j[15] = f;
-        j[16] = -kF * f;
-        j[19] = -f;
+        work[J + 0] = f;
+        work[J + 4] = -f;
+        work[J + 5] = f;
+        work[J + 9] = -f;
+        work[J + 10] = f;
+        work[J + 14] = -f;
+        work[J + 15] = f;
+        work[J + 16] = -kF * f;
+        work[J + 19] = -f;
 
         // Top row of exponential is [1 0 0 0 0]
-        float[] a = new float[20];
-        a[0] = 0;
-        a[4] = 1.0f;
-        a[9] = 1.0f;
-        a[14] = 1.0f;
-        a[19] = 1.0f;
+        work[A + 0] = 0;
+        work[A + 4] = 1.0f;
+        work[A + 9] = 1.0f;
+        work[A + 14] = 1.0f;
+        work[A + 19] = 1.0f;
 
-        float[] c = new float[20];
-        System.arraycopy(j, 0, c, 0, 20);
+        System.arraycopy(work, J, work, C, 20);
 
-        float[] scales = { 1.0f, 1 / 2.0f, 1 / 6.0f, 1 / 24.0f };
         // taylor's series to n1
         for (int i = 0; i < n1; i++) {
             float scale = scales[i];
-            vecUpdate4(a, scale, c);
-            matUpdate4(a, 4, scale, c, 4);
+            vecUpdate4(work, A, scale, work, C);
+            matUpdate4(work, A + 4, scale, work, C + 4);
             if (i < n1 - 1) {
-                float[] tmp = new float[20];
-                matVec4(tmp, 0, c, 4, j, 0);
-                matMult4(tmp, 4, c, 4, j, 4);
-                System.arraycopy(tmp, 0, c, 0, 20);
+                matVec4(work, TMP, work, C + 4, work, J);
+                matMult4(work, TMP + 4, work, C + 4, work, J + 4);
+                System.arraycopy(work, TMP, work, C, 20);
             }
         }
 
         // repeated squaring
         for (int i = 0; i < n2; i++) {
-            float[] tmp = new float[20];
-            matVec4(tmp, 0, a, 4, a, 0);
-            matMult4(tmp, 4, a, 4, a, 4);
+            matVec4(work, TMP, work, A + 4, work, A);
+            matMult4(work, TMP + 4, work, A + 4, work, A + 4);
             for (int l = 0; l < 4; l++) {
-                a[l] += tmp[l];
+                work[A + l] += work[TMP + l];
             }
-            System.arraycopy(tmp, 4, a, 4, 16);
+            System.arraycopy(work, TMP + 4, work, A + 4, 16);
         }
 
-        System.arraycopy(a, 0, result, 0, 20);
+        System.arraycopy(work, A, result, 0, 20);
     }
 
     static void testMatrix() {
         float[] params = { 1.0f, 3.99f };
         float[] a = new float[20];
-        makeStateTransition(a, (int) (params[0] * (1 << 24)), (int) (params[1] * (1 << 24)));
+        makeStateTransition(a, (int) (params[0] * (1 << 24)), (int) (params[1] * (1 << 24)), new float[80]);
         dumpMatrix(a);
     }
 
     public void process(int[][] inBufs, int[] controlIn, int[] controlLast, int[][] outBufs) {
+        process(inBufs[0], controlIn, controlLast, outBufs[0]);
+    }
+
+    /** single channel, without the array of buffers */
+    public void process(int[] iBuf, int[] controlIn, int[] controlLast, int[] obuf) {
         int alpha = computeAlpha(controlLast[0]);
         int alphaIn = computeAlpha(controlIn[0]);
-        int deltaAlpha = (alphaIn - alpha) >> Note.LG_N;
+        int deltaAlpha = (alphaIn - alpha) >> context.lgN;
         int k = controlLast[1];
         int kIn = controlIn[1];
-        int deltaK = (kIn - k) >> Note.LG_N;
+        int deltaK = (kIn - k) >> context.lgN;
         if ((((long) alphaIn * (long) kIn) >> 24) > 1 << 24) {
             kIn = ((1 << 30) / alphaIn) << 18;
         }
         if ((((long) alpha * (long) k) >> 24) > 1 << 24) {
             k = ((1 << 30) / alpha) << 18;
         }
-        int[] iBuf = inBufs[0];
-        int[] obuf = outBufs[0];
         int x0 = x[0];
         int x1 = x[1];
         int x2 = x[2];
@@ -190,7 +220,7 @@ public class ResoFilter {
         int w2 = w[2];
         int w3 = w[3];
         int yy0 = yy;
-        for (int i = 0; i < Note.N; i++) {
+        for (int i = 0; i < context.n; i++) {
             alpha += deltaAlpha;
             k += deltaK;
             int signal = iBuf[i];
@@ -218,4 +248,61 @@ public class ResoFilter {
         w[3] = w3;
         yy = yy0;
     }
+
+    /**
+     * Float path of {@link #process(int[][], int[], int[], int[][])}, 1.0 is
+     * the Q24 full scale. {@code in} and {@code out} may be the same.
+     */
+    public void process(float[] in, int inOffset, int[] controlIn, int[] controlLast, float[] out, int outOffset) {
+        int alphaLast = computeAlpha(controlLast[0]);
+        int alphaIn = computeAlpha(controlIn[0]);
+        int kLast = controlLast[1];
+        int kIn = controlIn[1];
+        if ((((long) alphaIn * (long) kIn) >> 24) > 1 << 24) {
+            kIn = ((1 << 30) / alphaIn) << 18;
+        }
+        if ((((long) alphaLast * (long) kLast) >> 24) > 1 << 24) {
+            kLast = ((1 << 30) / alphaLast) << 18;
+        }
+        float alpha = alphaLast * FmOpKernel.Q24;
+        float deltaAlpha = ((alphaIn - alphaLast) >> context.lgN) * FmOpKernel.Q24;
+        float k = kLast * FmOpKernel.Q24;
+        float deltaK = ((controlIn[1] - controlLast[1]) >> context.lgN) * FmOpKernel.Q24;
+        float x0 = xFloat[0];
+        float x1 = xFloat[1];
+        float x2 = xFloat[2];
+        float x3 = xFloat[3];
+        float w0 = wFloat[0];
+        float w1 = wFloat[1];
+        float w2 = wFloat[2];
+        float w3 = wFloat[3];
+        float yy0 = yyFloat;
+        for (int i = 0; i < context.n; i++) {
+            alpha += deltaAlpha;
+            k += deltaK;
+            float signal = in[inOffset + i];
+            float fb = k * (x3 + yy0) * 0.5f;
+            yy0 = x3;
+            float rx = signal - fb;
+            float trx = Tanh.lookupFloat(rx);
+            x0 += (trx - w0) * alpha;
+            w0 = Tanh.lookupFloat(x0);
+            x1 += (w0 - w1) * alpha;
+            w1 = Tanh.lookupFloat(x1);
+            x2 += (w1 - w2) * alpha;
+            w2 = Tanh.lookupFloat(x2);
+            x3 += (w2 - w3) * alpha;
+            w3 = Tanh.lookupFloat(x3);
+            out[outOffset + i] = x3;
+        }
+        xFloat[0] = x0;
+        xFloat[1] = x1;
+        xFloat[2] = x2;
+        xFloat[3] = x3;
+        wFloat[0] = w0;
+        wFloat[1] = w1;
+        wFloat[2] = w2;
+        wFloat[3] = w3;
+        yyFloat = yy0;
+    }
 }
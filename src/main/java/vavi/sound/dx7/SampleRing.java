@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.dx7;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+
+
+/**
+ * A ring of 16 bit samples between one producer, the render thread, and one
+ * consumer.
+ * <p>
+ * Neither side locks nor waits, a write takes what fits and a read what is
+ * there. A write is published at once at its end, so a consumer sees whole
+ * blocks. The indices are a cache line apart from each other, the producer
+ * and the consumer don't share one. {@link #size()} and
+ * {@link #getUnderruns()} are for monitoring, from any thread.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (nsano)
+ * @version 0.00 2026/10/17 nsano initial version <br>
+ */
+public class SampleRing {
+
+    private static final VarHandle INDEX = MethodHandles.arrayElementVarHandle(long[].class);
+
+    /** longs between indices, two cache lines for the adjacent line prefetch */
+    private static final int PAD = 16;
+    /** samples written, by the producer */
+    private static final int WRITE = PAD;
+    /** {@link #READ} as the producer saw it last */
+    private static final int READ_CACHE = PAD + 1;
+    /** samples read, by the consumer */
+    private static final int READ = PAD * 2;
+    /** {@link #WRITE} as the consumer saw it last */
+    private static final int WRITE_CACHE = PAD * 2 + 1;
+
+    private final long[] indices = new long[PAD * 3];
+
+    private final short[] buffer;
+    private final int mask;
+
+    /** reads which got fewer samples than asked, by the consumer */
+    private volatile long underruns;
+
+    /** @param capacity rounded up to a power of 2 */
+    public SampleRing(int capacity) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity: " + capacity);
+        }
+        buffer = new short[capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1];
+        mask = buffer.length - 1;
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    /** samples to be read */
+    public int size() {
+        long read = (long) INDEX.getAcquire(indices, READ);
+        long write = (long) INDEX.getAcquire(indices, WRITE);
+        return (int) Math.max(0, Math.min(buffer.length, write - read));
+    }
+
+    /** samples which can be written, by the producer */
+    public int remaining() {
+        long write = indices[WRITE];
+        return buffer.length - (int) (write - (long) INDEX.getAcquire(indices, READ));
+    }
+
+    /**
+     * Writes as many of {@code src[off, off + len)} as fit, by the producer.
+     * Samples are taken as 16 bit.
+     *
+     * @return samples written
+     */
+    public int write(int[] src, int off, int len) {
+        long write = indices[WRITE];
+        long read = indices[READ_CACHE];
+        if (write - read + len > buffer.length) {
+            read = (long) INDEX.getAcquire(indices, READ);
+            indices[READ_CACHE] = read;
+        }
+        int n = Math.min(len, buffer.length - (int) (write - read));
+        int p = (int) write & mask;
+        int first = Math.min(n, buffer.length - p);
+        for (int i = 0; i < first; i++) {
+            buffer[p + i] = (short) src[off + i];
+        }
+        for (int i = first; i < n; i++) {
+            buffer[i - first] = (short) src[off + i];
+        }
+        INDEX.setRelease(indices, WRITE, write + n);
+        return n;
+    }
+
+    /** reads which got fewer samples than asked */
+    public long getUnderruns() {
+        return underruns;
+    }
+
+    /** samples readable by the consumer, at most {@code len} */
+    private int available(long read, int len) {
+        long write = indices[WRITE_CACHE];
+        if (write - read < len) {
+            write = (long) INDEX.getAcquire(indices, WRITE);
+            indices[WRITE_CACHE] = write;
+            if (write - read < len) {
+                underruns++;
+            }
+        }
+        return (int) Math.min(len, write - read);
+    }
+
+    /**
+     * Reads as many samples as there are into {@code dst[off, off + len)},
+     * by the consumer.
+     *
+     * @return samples read
+     */
+    public int read(short[] dst, int off, int len) {
+        long read = indices[READ];
+        int n = available(read, len);
+        int p = (int) read & mask;
+        int first = Math.min(n, buffer.length - p);
+        System.arraycopy(buffer, p, dst, off, first);
+        System.arraycopy(buffer, 0, dst, off + first, n - first);
+        INDEX.setRelease(indices, READ, read + n);
+        return n;
+    }
+
+    /**
+     * Reads as many samples as there are into {@code dst[off, off + len)}
+     * as [-1, 1), by the consumer.
+     *
+     * @return samples read
+     */
+    public int read(float[] dst, int off, int len) {
+        long read = indices[READ];
+        int n = available(read, len);
+        for (int i = 0; i < n; i++) {
+            dst[off + i] = buffer[(int) (read + i) & mask] / 32768f;
+        }
+        INDEX.setRelease(indices, READ, read + n);
+        return n;
+    }
+
+    /**
+     * Reads as many samples as there are and fit into {@code dst}, 16 bit in
+     * its byte order, by the consumer.
+     *
+     * @return samples read
+     */
+    public int read(ByteBuffer dst) {
+        long read = indices[READ];
+        int n = available(read, dst.remaining() / 2);
+        for (int i = 0; i < n; i++) {
+            dst.putShort(buffer[(int) (read + i) & mask]);
+        }
+        INDEX.setRelease(indices, READ, read + n);
+        return n;
+    }
+}
@@ -18,11 +18,12 @@ package vavi.sound.dx7;
 
 
 class Sin {
-    private static final int SIN_LG_N_SAMPLES = 10;
-    private static final int SIN_N_SAMPLES = 1 << SIN_LG_N_SAMPLES;
+    static final int SIN_LG_N_SAMPLES = 10;
+    static final int SIN_N_SAMPLES = 1 << SIN_LG_N_SAMPLES;
     private static final int R = 1 << 29;
 
-    private static final int[] sinTab = new int[SIN_N_SAMPLES << 1];
+    /** interleaved delta and value, also gathered by {@link VectorFmOpKernel} */
+    static final int[] sinTab = new int[SIN_N_SAMPLES << 1];
 
     static {
         double dPhase = 2 * Math.PI / SIN_N_SAMPLES;
@@ -43,6 +44,25 @@ class Sin {
         sinTab[(SIN_N_SAMPLES << 1) - 2] = -sinTab[(SIN_N_SAMPLES << 1) - 1];
     }
 
+    /** {@link #sinTab} in float, 1.0 is full scale */
+    private static final float[] sinTabFloat = new float[SIN_N_SAMPLES << 1];
+
+    static {
+        for (int i = 0; i < sinTab.length; i++) {
+            sinTabFloat[i] = sinTab[i] / (float) (1 << 24);
+        }
+    }
+
+    public static float lookupFloat(int phase) {
+        final int SHIFT = 24 - SIN_LG_N_SAMPLES;
+        int lowBits = phase & ((1 << SHIFT) - 1);
+        int phaseInt = (phase >> (SHIFT - 1)) & ((SIN_N_SAMPLES - 1) << 1);
+        float dy = sinTabFloat[phaseInt];
+        float y0 = sinTabFloat[phaseInt + 1];
+
+        return y0 + dy * (lowBits * (1f / (1 << SHIFT)));
+    }
+
     public static int lookup(int phase) {
         final int SHIFT = 24 - SIN_LG_N_SAMPLES;
         int lowBits = phase & ((1 << SHIFT) - 1);
@@ -53,6 +73,49 @@ class Sin {
         return (int) (y0 + (((long) dy * (long) lowBits) >> SHIFT));
     }
 
+    static final int TABLE_LG_N_SAMPLES = 14;
+    private static final int TABLE_N_SAMPLES = 1 << TABLE_LG_N_SAMPLES;
+
+    /** for {@link SinQuality#TABLE}, also gathered by {@link VectorFmOpKernel} */
+    static final int[] table = new int[TABLE_N_SAMPLES];
+
+    static {
+        for (int i = 0; i < TABLE_N_SAMPLES; i++) {
+            table[i] = (int) Math.floor(Math.sin(2 * Math.PI * i / TABLE_N_SAMPLES) * (1 << 24) + 0.5);
+        }
+    }
+
+    /** nearest sample, no interpolation */
+    public static int lookupTable(int phase) {
+        final int SHIFT = 24 - TABLE_LG_N_SAMPLES;
+        return table[((phase + (1 << (SHIFT - 1))) >> SHIFT) & (TABLE_N_SAMPLES - 1)];
+    }
+
+    /**
+     * Q24 phase and result in the given tier. The tier is loop invariant in
+     * the kernels, so the branches cost next to nothing.
+     */
+    static int sin(int phase, SinQuality quality) {
+        if (quality == SinQuality.LOOKUP) {
+            return lookup(phase);
+        } else if (quality == SinQuality.TABLE) {
+            return lookupTable(phase);
+        } else if (quality == SinQuality.POLY8) {
+            return compute(phase);
+        } else {
+            return (compute10(phase << 6) + 32) >> 6;
+        }
+    }
+
+    /** float version of {@link #sin(int, SinQuality)}, 1.0 is full scale */
+    static float sinFloat(int phase, SinQuality quality) {
+        if (quality == SinQuality.LOOKUP) {
+            return lookupFloat(phase);
+        } else {
+            return sin(phase, quality) * (1f / (1 << 24));
+        }
+    }
+
     // coefficients are Chebyshev polynomial, computed by compute_cos_poly.py
     private static final int C8_0 = 16777216;
     private static final int C8_2 = -331168742;
@@ -0,0 +1,26 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.dx7;
+
+
+/**
+ * Sine generation tiers of the operators, from the cheapest to the most
+ * accurate. {@link #LOOKUP} is the original one.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (nsano)
+ * @version 0.00 2026/10/17 nsano initial version <br>
+ */
+public enum SinQuality {
+    /** nearest sample of a 16k entry table, no interpolation */
+    TABLE,
+    /** linear interpolation of a 1k entry table */
+    LOOKUP,
+    /** 8th order Chebyshev polynomial */
+    POLY8,
+    /** 10th order Chebyshev polynomial, computed in Q30 */
+    POLY10
+}
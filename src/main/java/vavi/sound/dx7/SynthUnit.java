@@ -18,14 +18,34 @@ package vavi.sound.dx7;
 
 import java.lang.System.Logger;
 import java.lang.System.Logger.Level;
-import java.util.concurrent.BlockingDeque;
+import java.util.Arrays;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import static java.lang.System.getLogger;
 
 
+/**
+ * A 16 part multi-timbral synthesizer, a part by MIDI channel. Each part has
+ * its own patch, LFO, controllers and filter, the voices are shared by all
+ * parts and allocated to whichever plays. The methods without a channel are
+ * of channel 0.
+ * <p>
+ * {@link #noteOn(int, int, int)}, {@link #controlChange(int, int, int)} and
+ * the like take effect right away and are for the rendering thread, other
+ * threads {@link #send(int, int, int)} or {@link #schedule(long, int, int, int)}
+ * messages, which the rendering thread takes at the start of a block.
+ * <p>
+ * A scheduled note on sounds from its very sample, its voice starts that
+ * far into the block, and a program change takes effect there among the
+ * notes. Controller changes and pitch bends are not sample accurate: pitch,
+ * modulation and the filter are computed once a block, which is not split
+ * at their samples, so they are applied at the nearest block start, half a
+ * block off at most. A smaller block size gives tighter timing, see
+ * {@link Context#getInstance(float, int)}.
+ */
 public class SynthUnit {
 
     private static final Logger logger = getLogger(SynthUnit.class.getName());
@@ -42,97 +62,270 @@ public class SynthUnit {
         int midiNote;
         boolean keyDown;
         boolean sustained;
+        /** false once the voice has been reaped by {@link #voices} */
         boolean live;
-        Note dx7Note;
-//        int channel;
+        /** in {@link #voices} */
+        int voice;
+        int channel;
+    }
+
+    /** number of parts, one by MIDI channel */
+    public static final int PARTS = 16;
+
+    /** what a MIDI channel plays */
+    private static class Part {
+        final byte[] patchData = new byte[156];
+        CompiledPatch patch;
+        /** by key, over {@link #patch}, null for none */
+        CompiledPatch[] kit;
+        /** one for all voices of the part, as the original DX7 */
+        final Lfo lfo;
+        // in MIDI units (0x4000 is neutral)
+        final Note.Controllers controllers = new Note.Controllers(0x2000);
+        final ResoFilter filter;
+        final int[] filterControl = {258847126, 0, 0};
+        boolean sustain;
+        /** has voices, the filter runs, it is reset when they are gone */
+        boolean filtering;
+
+        Part(Context context, byte[] patchData, CompiledPatch patch) {
+            System.arraycopy(patchData, 0, this.patchData, 0, patchData.length);
+            this.patch = patch;
+            lfo = new Lfo(context);
+            filter = new ResoFilter(context);
+        }
+
+        boolean isSameAs(Part other) {
+            return Arrays.equals(patchData, other.patchData) && (patch == other.patch || patch.isFrom(other.patch.getPatch())) &&
+                    Arrays.equals(kit, other.kit) &&
+                    lfo.isSameAs(other.lfo) && Arrays.equals(controllers.values, other.controllers.values) &&
+                    filter.isSameAs(other.filter) && Arrays.equals(filterControl, other.filterControl) &&
+                    sustain == other.sustain && filtering == other.filtering;
+        }
     }
 
-    private final BlockingDeque<Integer> deque;
-    private long timestump;
+    /** where {@link #process()} renders to */
+    private final SampleRing ring;
+    /** samples rendered ahead into {@link #ring} */
+    private volatile int watermark;
+    /** samples handed out */
+    private volatile long position;
 
-    private static final int MAX_ACTIVE_NOTES = 16;
-    private final ActiveNote[] activeNote = new ActiveNote[MAX_ACTIVE_NOTES];
+    private static final int DEFAULT_POLYPHONY = 16;
+    private final int maxActiveNotes;
+    private final ActiveNote[] activeNote;
     private int currentNote;
+    private final VoicePool voices;
 
-    private final byte[] patchData = new byte[156];
+    private final Part[] parts = new Part[PARTS];
+    /** of program changes sent or scheduled, null for none */
+    private CompiledPatch[] programs;
 
     private final Context context;
 
-    // in MIDI units (0x4000 is neutral)
-    private final Note.Controllers controllers;
-
-    private final ResoFilter filter;
-    private final int[] filterControl = new int[3];
-    private boolean sustain;
+    // by part, for {@link #voices}
+    private final int[] lfoValue = new int[PARTS];
+    private final int[] lfoDelay = new int[PARTS];
+    private final Note.Controllers[] controllers = new Note.Controllers[PARTS];
 
     // Extra buffering for when GetSamples wants a buffer not a multiple of N
-    private final int[] extraBuf = new int[Note.N];
+    private final int[] extraBuf;
     private int extraBufSize;
 
-    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    /** {@link Context#n} samples by part */
+    private final long[] mixBuf;
+    // per block, kept so that rendering allocates nothing
+    private final int[] audioBuf;
+    private final int[] audioBuf2;
+    /** parts added up */
+    private final long[] sumBuf;
+
+    /** by {@link #schedule(long, int, int, int)} and {@link #send(int, int, int)} from any thread */
+    private final CommandQueue commands = new CommandQueue(4096);
+    /** the sample of a message sent, the next block */
+    private static final long NOW = Long.MIN_VALUE;
+    /** {@link #commands} taken, in order */
+    private final EventQueue events = new EventQueue(4096);
+    /** messages due on a block, at most */
+    private final int[] batch = new int[256];
+    /** by {@link #batch}, samples into the block */
+    private final int[] offsets = new int[256];
+    /** keys released on the latter half of a block, 2 longs by channel */
+    private final long[] releases = new long[PARTS * 2];
+    /** controllers and pitch bend of {@link #batch} changed again later on it, 3 longs by channel */
+    private final long[] changed = new long[PARTS * 3];
+    /** samples rendered into blocks, the start of the next one */
+    private long rendered;
+    private long coalesced;
+
+    /** notes are not sounded, see {@link #setDry(boolean)} */
+    private boolean dry;
+
+    /** null when pulled by {@link #getSamples(int, int[])} only */
+    private final ScheduledExecutorService executor;
 
     public void close() {
-        executor.shutdown();
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    public SynthUnit(float sampleRate, SampleRing ring) {
+        this(sampleRate, ring, DEFAULT_POLYPHONY);
+    }
+
+    /**
+     * @param polyphony max number of notes sounding at once
+     */
+    public SynthUnit(float sampleRate, SampleRing ring, int polyphony) {
+        this(sampleRate, ring, polyphony, Note.N);
+    }
+
+    /**
+     * @param polyphony max number of notes sounding at once
+     * @param blockSize render block size, see {@link Context#getInstance(float, int)}
+     */
+    public SynthUnit(float sampleRate, SampleRing ring, int polyphony, int blockSize) {
+        this(sampleRate, polyphony, blockSize, ring);
+    }
+
+    /**
+     * Without a clock, samples are rendered only as fast as
+     * {@link #getSamples(int, int[])} asks for them.
+     *
+     * @param polyphony max number of notes sounding at once
+     * @param blockSize render block size, see {@link Context#getInstance(float, int)}
+     */
+    public SynthUnit(float sampleRate, int polyphony, int blockSize) {
+        this(sampleRate, polyphony, blockSize, null);
     }
 
-    public SynthUnit(float sampleRate, BlockingDeque<Integer> deque) {
-        for (int note = 0; note < MAX_ACTIVE_NOTES; ++note) {
+    /** @param ring null for no clock */
+    private SynthUnit(float sampleRate, int polyphony, int blockSize, SampleRing ring) {
+        maxActiveNotes = polyphony;
+        activeNote = new ActiveNote[maxActiveNotes];
+        for (int note = 0; note < maxActiveNotes; ++note) {
             activeNote[note] = new ActiveNote();
         }
-        for (int i = 0; i < patchData.length; i++) {
-            byte[] unpacked_patch_ = new byte[156];
-            Patch.unpackPatch(epiano2, unpacked_patch_);
-            System.arraycopy(unpacked_patch_, 0, patchData, 0, epiano2.length);
-        }
         currentNote = 0;
-        filterControl[0] = 258847126;
-        filterControl[1] = 0;
-        filterControl[2] = 0;
-        controllers = new Note.Controllers(0x2000);
-        sustain = false;
         extraBufSize = 0;
 
-        this.deque = deque;
-        timestump = System.currentTimeMillis();
+        this.ring = ring;
 
-        context = Context.getInstance(sampleRate);
-        filter = new ResoFilter(context);
+        context = Context.getInstance(sampleRate, blockSize);
+        byte[] patchData = new byte[156];
+        Patch.unpackPatch(epiano2, patchData);
+        CompiledPatch patch = new CompiledPatch(patchData);
+        for (int p = 0; p < PARTS; p++) {
+            parts[p] = new Part(context, patchData, patch);
+            controllers[p] = parts[p].controllers;
+        }
+        voices = new VoicePool(context, maxActiveNotes, PARTS);
+        extraBuf = new int[context.n];
+        mixBuf = new long[PARTS * context.n];
+        audioBuf = new int[context.n];
+        audioBuf2 = new int[context.n];
+        sumBuf = new long[context.n];
+
+        if (ring != null) {
+            watermark = ring.capacity() / 2;
+            executor = Executors.newSingleThreadScheduledExecutor();
+            long period = (long) (1_000_000_000.0 * context.n / sampleRate);
+            logger.log(Level.DEBUG, "period: " + period + " ns");
+            executor.scheduleAtFixedRate(this::process, 1_000_000_000, period, TimeUnit.NANOSECONDS);
+        } else {
+            executor = null;
+        }
+    }
 
-        logger.log(Level.DEBUG, "period: " + (int) (1000.0 * Note.N / 44100.0));
-        executor.scheduleAtFixedRate(this::process, 1000, (int) (1000.0 * Note.N / 44100.0), TimeUnit.MILLISECONDS);
+    public float getSampleRate() {
+        return context.sampleRate;
     }
 
+    /** prefers a note whose voice has finished, then one released */
     private int allocateNote() {
         int note = currentNote;
-        for (int i = 0; i < MAX_ACTIVE_NOTES; i++) {
+        for (int i = 0; i < maxActiveNotes; i++) {
+            if (!activeNote[note].live) {
+                currentNote = (note + 1) % maxActiveNotes;
+                return note;
+            }
+            note = (note + 1) % maxActiveNotes;
+        }
+        for (int i = 0; i < maxActiveNotes; i++) {
             if (!activeNote[note].keyDown) {
-                currentNote = (note + 1) % MAX_ACTIVE_NOTES;
+                currentNote = (note + 1) % maxActiveNotes;
                 return note;
             }
-            note = (note + 1) % MAX_ACTIVE_NOTES;
+            note = (note + 1) % maxActiveNotes;
         }
 logger.log(Level.DEBUG, "allocateNote: max");
         return -1;
     }
 
     public void programChange(int p, byte[] patch, int ofs) {
+        programChange(0, p, patch, ofs);
+    }
+
+    public void programChange(int channel, int p, byte[] patch, int ofs) {
+        Part part = parts[channel];
         p = Math.min(p, 31);
-        System.arraycopy(patch, ofs, patchData, 0, patchData.length);
-        context.lfo.reset(patchData, 137);
+        System.arraycopy(patch, ofs, part.patchData, 0, part.patchData.length);
+        part.patch = new CompiledPatch(part.patchData);
+        part.lfo.reset(part.patchData, 137);
 
         byte[] name = new byte[10];
-        System.arraycopy(patchData, 145, name, 0, 10);
-        logger.log(Level.DEBUG, "Loaded patch " + p + ": " + new String(name, 0, 10));
+        System.arraycopy(part.patchData, 145, name, 0, 10);
+        logger.log(Level.DEBUG, "Loaded patch " + p + " on " + channel + ": " + new String(name, 0, 10));
+    }
+
+    /** by a patch compiled already, nothing is allocated */
+    public void programChange(int channel, CompiledPatch patch) {
+        Part part = parts[channel];
+        patch.copyTo(part.patchData);
+        part.patch = patch;
+        part.lfo.reset(part.patchData, 137);
+    }
+
+    /**
+     * The patches program changes {@link #send(int, int, int) sent} or
+     * {@link #schedule(long, int, int, int) scheduled} take, by program,
+     * wrapped around when fewer than 128. null, by default, for program
+     * changes not taken.
+     */
+    public void setPrograms(CompiledPatch[] programs) {
+        this.programs = programs;
+    }
+
+    /**
+     * A patch by key for the notes of a part, e.g. a drum kit, over the
+     * patch of the part. null elements and a null kit, by default, for the
+     * patch of the part.
+     */
+    public void setKit(int channel, CompiledPatch[] kit) {
+        parts[channel].kit = kit;
+    }
+
+    /**
+     * Sets the patch of a part without resetting its LFO, for the next
+     * notes, sounding ones keep theirs. For drum kits, a patch by key.
+     */
+    public void setPatch(int channel, CompiledPatch patch) {
+        parts[channel].patch = patch;
     }
 
     public void noteOff(int noteNumber) {
+        noteOff(0, noteNumber);
+    }
+
+    public void noteOff(int channel, int noteNumber) {
 //logger.log(Level.DEBUG, "note off: " + noteNumber);
-        for (int note = 0; note < MAX_ACTIVE_NOTES; ++note) {
-            if (activeNote[note].midiNote == noteNumber && activeNote[note].keyDown) {
-                if (sustain) {
+        for (int note = 0; note < maxActiveNotes; ++note) {
+            if (activeNote[note].midiNote == noteNumber && activeNote[note].channel == channel && activeNote[note].keyDown) {
+                if (parts[channel].sustain) {
                     activeNote[note].sustained = true;
-                } else {
-                    activeNote[note].dx7Note.keyUp();
+                } else if (activeNote[note].live) {
+                    voices.keyUp(activeNote[note].voice);
                 }
                 activeNote[note].keyDown = false;
             }
@@ -140,55 +333,317 @@ logger.log(Level.DEBUG, "allocateNote: max");
     }
 
     public void noteOn(int noteNumber, int velocity) {
+        noteOn(0, noteNumber, velocity);
+    }
+
+    public void noteOn(int channel, int noteNumber, int velocity) {
+        noteOn(channel, noteNumber, velocity, 0);
+    }
+
+    /** @param delay samples into the next block it sounds from */
+    private void noteOn(int channel, int noteNumber, int velocity, int delay) {
         if (velocity == 0) {
-            noteOff(noteNumber);
+            noteOff(channel, noteNumber);
             return;
         }
 //logger.log(Level.DEBUG, "note on: " + noteNumber + ", " + velocity);
+        if (dry) {
+            parts[channel].lfo.keyDown();
+            return;
+        }
         int noteIx = allocateNote();
         if (noteIx >= 0) {
-            context.lfo.keyDown(); // TODO: should only do this if # keys down was 0
+            Part part = parts[channel];
+            part.lfo.keyDown(); // TODO: should only do this if # keys down was 0
             activeNote[noteIx].midiNote = noteNumber;
+            activeNote[noteIx].channel = channel;
             activeNote[noteIx].keyDown = true;
-            activeNote[noteIx].sustained = sustain;
+            activeNote[noteIx].sustained = part.sustain;
+            if (activeNote[noteIx].live) {
+                voices.free(activeNote[noteIx].voice);
+            }
             activeNote[noteIx].live = true;
-            activeNote[noteIx].dx7Note = new Note(context, patchData, noteNumber, velocity);
+            CompiledPatch patch = part.kit != null && part.kit[noteNumber] != null ? part.kit[noteNumber] : part.patch;
+            activeNote[noteIx].voice = voices.noteOn(patch, noteNumber, velocity, channel, delay);
         }
     }
 
     public void controlChange(int controller, int value) {
+        controlChange(0, controller, value);
+    }
+
+    public void controlChange(int channel, int controller, int value) {
+        Part part = parts[channel];
         // TODO: move more logic into setController
         if (controller == 1) {
-            filterControl[0] = 142365917 + value * 917175;
+            part.filterControl[0] = 142365917 + value * 917175;
         } else if (controller == 2) {
-            filterControl[1] = value * 528416;
+            part.filterControl[1] = value * 528416;
         } else if (controller == 3) {
-            filterControl[2] = value * 528416;
+            part.filterControl[2] = value * 528416;
         } else if (controller == 64) {
             // damper pedal hold 1
-            sustain = value != 0;
-            if (!sustain) {
-                for (int note = 0; note < MAX_ACTIVE_NOTES; note++) {
-                    if (activeNote[note].sustained && !activeNote[note].keyDown) {
-                        activeNote[note].dx7Note.keyUp();
+            part.sustain = value != 0;
+            if (!part.sustain) {
+                for (int note = 0; note < maxActiveNotes; note++) {
+                    if (activeNote[note].channel == channel && activeNote[note].sustained && !activeNote[note].keyDown) {
+                        if (activeNote[note].live) {
+                            voices.keyUp(activeNote[note].voice);
+                        }
                         activeNote[note].sustained = false;
                     }
                 }
             }
         }
-        controllers.values[controller] = value;
+        part.controllers.values[controller] = value;
 //logger.log(Level.DEBUG, "control change: " + controller + ", " + value);
     }
 
     public void pitchBend(int data1, int data2) {
-        controlChange(Note.kControllerPitch, data1 | (data2 << 7));
+        pitchBend(0, data1, data2);
+    }
+
+    public void pitchBend(int channel, int data1, int data2) {
+        controlChange(channel, Note.kControllerPitch, data1 | (data2 << 7));
 //logger.log(Level.DEBUG, "pitch bend: " + data1 + ", " + data2);
     }
 
+    /**
+     * Takes a MIDI message due at {@code sample} on the {@link #getPosition()}
+     * clock, e.g. {@code getPosition() + latency}. A note on sounds from that
+     * very sample, a program change takes effect there among the notes, see
+     * {@link #setPrograms(CompiledPatch[])}. The other messages are applied
+     * at the start of the block nearest to it, half a block off at most, a
+     * smaller block size gives tighter timing. Controller changes and pitch
+     * bends due on the same block are applied once, the last one, unless a
+     * note of the channel comes between. From any thread.
+     *
+     * @param status a channel message status
+     * @return false when the queue is full
+     */
+    public boolean schedule(long sample, int status, int data1, int data2) {
+        return commands.offer(sample, EventQueue.pack(status, data1, data2));
+    }
+
+    /**
+     * Takes a MIDI message for the next block, from any thread, see
+     * {@link #schedule(long, int, int, int)}.
+     *
+     * @return false when the queue is full
+     */
+    public boolean send(int status, int data1, int data2) {
+        return commands.offer(NOW, EventQueue.pack(status, data1, data2));
+    }
+
+    /** messages sent or scheduled, not applied yet */
+    public int getQueueDepth() {
+        return commands.size() + events.size();
+    }
+
+    /** controller changes and pitch bends left out by the later ones on a block, so far */
+    public long getCoalesced() {
+        return coalesced;
+    }
+
+    /**
+     * Applies the scheduled messages due on the block starting at
+     * {@link #rendered}. Note ons sound from their sample into it, program
+     * changes are applied in order with them, the others are applied at its
+     * start when nearer to it than to the next one, a note on of a key
+     * released later stays behind the release.
+     */
+    private void dispatch() {
+        while (!events.isFull() && !commands.isEmpty()) {
+            long sample = commands.peekSample();
+            events.offer(sample == NOW ? rendered : sample, commands.poll());
+        }
+        int count = 0;
+        int deferred = 0;
+        Arrays.fill(releases, 0);
+        while (count + deferred < batch.length && !events.isEmpty() && events.peekSample() < rendered + context.n) {
+            int offset = (int) Math.max(0, events.peekSample() - rendered);
+            int message = events.poll();
+            int status = EventQueue.status(message) & 0xf0;
+            int word = (message & 0x0f) * 2 + EventQueue.data1(message) / 64;
+            long bit = 1L << (EventQueue.data1(message) % 64);
+            boolean noteOn = status == 0x90 && EventQueue.data2(message) != 0;
+            if (noteOn ? (releases[word] & bit) != 0 : status != 0xc0 && offset >= context.n / 2) {
+                if (!noteOn && (status == 0x80 || status == 0x90)) {
+                    releases[word] |= bit;
+                }
+                // for the next block, kept at the end of the batch
+                deferred++;
+                batch[batch.length - deferred] = message;
+                offsets[batch.length - deferred] = offset;
+                continue;
+            }
+            offsets[count] = offset;
+            batch[count++] = message;
+        }
+        for (int i = 1; i <= deferred; i++) {
+            events.offer(rendered + offsets[batch.length - i], batch[batch.length - i]);
+        }
+        if (count == 0) {
+            return;
+        }
+        // backwards, the last change of a controller is kept
+        Arrays.fill(changed, 0);
+        for (int i = count - 1; i >= 0; i--) {
+            int status = EventQueue.status(batch[i]);
+            int channel = status & 0x0f;
+            int data1 = EventQueue.data1(batch[i]);
+            int key = switch (status & 0xf0) {
+            case 0xb0 -> data1 != 64 && data1 < 120 ? data1 : -1; // not the damper, no mode message
+            case 0xe0 -> 128;
+            default -> -1;
+            };
+            if (key >= 0) {
+                int word = channel * 3 + key / 64;
+                long bit = 1L << (key % 64);
+                if ((changed[word] & bit) != 0) {
+                    batch[i] = 0;
+                    coalesced++;
+                } else {
+                    changed[word] |= bit;
+                }
+            } else {
+                changed[channel * 3] = changed[channel * 3 + 1] = changed[channel * 3 + 2] = 0;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            int message = batch[i];
+            int channel = message & 0x0f;
+            int data1 = EventQueue.data1(message);
+            int data2 = EventQueue.data2(message);
+            switch (EventQueue.status(message) & 0xf0) {
+            case 0x80 -> noteOff(channel, data1);
+            case 0x90 -> noteOn(channel, data1, data2, offsets[i]);
+            case 0xb0 -> controlChange(channel, data1, data2);
+            case 0xc0 -> {
+                if (programs != null) {
+                    programChange(channel, programs[data1 % programs.length]);
+                }
+            }
+            case 0xe0 -> pitchBend(channel, data1, data2);
+            default -> {}
+            }
+        }
+    }
+
+    /** trades sine accuracy for cpu, {@link SinQuality#LOOKUP} by default */
+    public void setSinQuality(SinQuality quality) {
+        voices.setSinQuality(quality);
+    }
+
+    /**
+     * Splits the voices of a block over the workers of {@code pool}, null
+     * for the rendering thread alone. The output is the same either way.
+     */
+    public void setForkJoinPool(ForkJoinPool pool) {
+        voices.setForkJoinPool(pool);
+    }
+
     public void sysex(byte[] b) {
     }
 
+    /** number of voices sounding, finished ones are reaped every block */
+    public int getActiveVoices() {
+        return voices.size();
+    }
+
+    /**
+     * Notes on are taken but nothing sounds, while the rest goes on as
+     * usual. Fast forwards an engine in no time to a point where the
+     * sounding notes have faded out, see {@link #isSameAs(SynthUnit)}.
+     */
+    public void setDry(boolean dry) {
+        this.dry = dry;
+    }
+
+    /**
+     * Whether nothing sounds on both and the rest is the same, so that both
+     * render the same from here on, for the same events. Renders of
+     * consecutive parts of a sequence join without a seam where this holds.
+     * Which voices have been used does not count.
+     */
+    public boolean isSameAs(SynthUnit other) {
+        if (voices.size() != 0 || other.voices.size() != 0 || extraBufSize != 0 || other.extraBufSize != 0 ||
+                !events.isEmpty() || !other.events.isEmpty() || !commands.isEmpty() || !other.commands.isEmpty() ||
+                currentNote != other.currentNote || context != other.context || maxActiveNotes != other.maxActiveNotes ||
+                programs != other.programs) {
+            return false;
+        }
+        for (int p = 0; p < PARTS; p++) {
+            if (!parts[p].isSameAs(other.parts[p])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Renders one block of voices, forgets the ones reaped on it and adds
+     * up the parts into {@link #sumBuf}.
+     *
+     * @param lfo false for the LFOs standing still at 0
+     * @param filtered through the filter of each part
+     */
+    private void computeVoices(boolean lfo, boolean filtered) {
+        dispatch();
+        rendered += context.n;
+        for (int p = 0; p < PARTS; p++) {
+            lfoValue[p] = lfo ? parts[p].lfo.getSample() : 0;
+            lfoDelay[p] = lfo ? parts[p].lfo.getDelay() : 0;
+        }
+        Arrays.fill(sumBuf, 0);
+        if (dry) {
+            return;
+        }
+        Arrays.fill(mixBuf, 0);
+        voices.compute(mixBuf, lfoValue, lfoDelay, controllers);
+        for (ActiveNote note : activeNote) {
+            if (note.live && !voices.isLive(note.voice)) {
+                note.live = false;
+            }
+        }
+        if (voices.size() == 0) {
+            currentNote = 0; // the same as a new one
+        }
+        for (int p = 0; p < PARTS; p++) {
+            Part part = parts[p];
+            if (voices.size(p) == 0) {
+                if (part.filtering) { // what is left is far under a bit
+                    part.filter.reset();
+                    part.filtering = false;
+                }
+                continue;
+            }
+            part.filtering = true;
+            int offset = p * context.n;
+            for (int j = 0; j < context.n; j++) {
+                // saturated, many loud voices of a part may sum over int
+                audioBuf[j] = (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, mixBuf[offset + j]));
+            }
+            int[] out = audioBuf;
+            if (filtered) {
+                part.filter.process(audioBuf, part.filterControl, part.filterControl, audioBuf2);
+                out = audioBuf2;
+            }
+            for (int j = 0; j < context.n; j++) {
+                sumBuf[j] += out[j];
+            }
+        }
+    }
+
+    /** 16 bit of a sum of parts */
+    private static int clip(long sum) {
+        long val = sum >> 4;
+        return val < -(1 << 24) ? 0x8000 : val >= (1 << 24) ? 0x7fff : (int) (val >> 9);
+    }
+
+    /** renders {@code nSamples} into {@code buffer}, the rest of a block is kept for the next call */
     public void getSamples(int nSamples, int[] buffer) {
+        position += nSamples;
         int i;
         for (i = 0; i < nSamples && i < extraBufSize; i++) {
             buffer[i] = extraBuf[i];
@@ -199,25 +654,11 @@ logger.log(Level.DEBUG, "allocateNote: max");
             return;
         }
 
-        for (; i < nSamples; i += Note.N) {
-            int[] audioBuf = new int[Note.N];
-            int[] audioBuf2 = new int[Note.N];
-            int lfoValue = context.lfo.getSample();
-            int lfoDelay = context.lfo.getDelay();
-            for (int note = 0; note < MAX_ACTIVE_NOTES; ++note) {
-                if (activeNote[note].live && activeNote[note].dx7Note != null) {
-                    activeNote[note].dx7Note.compute(audioBuf, lfoValue, lfoDelay, controllers);
-//                    activeNote[note].dx7Note.compute(audioBuf, 0, 0, controllers);
-                }
-            }
-            int[][] bufs = { audioBuf };
-            int[][] bufs2 = { audioBuf2 };
-            filter.process(bufs, filterControl, filterControl, bufs2);
+        for (; i < nSamples; i += context.n) {
+            computeVoices(true, true);
             int jmax = nSamples - i;
-            for (int j = 0; j < Note.N; ++j) {
-                int val = audioBuf2[j] >> 4;
-//                int val = audioBuf[j] >> 4;
-                int clip_val = val < -(1 << 24) ? 0x8000 : val >= (1 << 24) ? 0x7fff : val >> 9;
+            for (int j = 0; j < context.n; ++j) {
+                int clip_val = clip(sumBuf[j]);
                 // TODO: maybe some dithering?
                 if (j < jmax) {
                     buffer[i + j] = clip_val;
@@ -230,48 +671,55 @@ logger.log(Level.DEBUG, "allocateNote: max");
 //logger.log(Level.DEBUG, "extra: " + (i - nSamples));
     }
 
+    /**
+     * Samples rendered ahead into the ring, the latency, half the ring by
+     * default. The ring is kept at this level as its reader takes samples,
+     * so that rendering goes at the reader's pace whatever the sample rate.
+     */
+    public void setWatermark(int samples) {
+        if (ring == null) {
+            throw new IllegalStateException("no ring");
+        }
+        watermark = Math.max(0, Math.min(ring.capacity(), samples));
+    }
+
+    public int getWatermark() {
+        return watermark;
+    }
+
+    /** samples rendered so far, by {@link #getSamples(int, int[])} or into the ring */
+    public long getPosition() {
+        return position;
+    }
+
+    /** fills {@link #ring} up to the {@link #setWatermark(int) watermark} */
     public void process() {
-        int nsec = (int) (System.currentTimeMillis() - timestump);
-        timestump = System.currentTimeMillis();
-        int nSamples = (int) (44100 * nsec / 1000.0);
-        int i;
-        for (i = 0; i < nSamples && i < extraBufSize; i++) {
-            deque.add(extraBuf[i]);
+        int nSamples = Math.min(watermark - ring.size(), ring.remaining());
+        if (nSamples <= 0) {
+            return;
         }
+        position += nSamples;
+        int i = Math.min(nSamples, extraBufSize);
+        ring.write(extraBuf, 0, i);
         if (extraBufSize > nSamples) {
             System.arraycopy(extraBuf, nSamples, extraBuf, 0, extraBufSize - nSamples);
             extraBufSize -= nSamples;
             return;
         }
 
-        for (; i < nSamples; i += Note.N) {
-            int[] audioBuf = new int[Note.N];
-//            int[] audioBuf2 = new int[Note.N];
-//            int lfoValue = lfo.getSample();
-//            int lfoDelay = lfo.getSelay();
-            for (int note = 0; note < MAX_ACTIVE_NOTES; ++note) {
-                if (activeNote[note].live && activeNote[note].dx7Note != null) {
-//                    activeNnote[note].dx7Note.compute(audioBuf, lfoValue, lfoDelay, controllers);
-                    activeNote[note].dx7Note.compute(audioBuf, 0, 0, controllers);
-                }
-            }
-//            final int[][] bufs = { audioBuf };
-//            int[][] bufs2 = { audiobuf2 };
-//            filter.process(bufs, filterControl, filterControl, bufs2);
-            int jmax = nSamples - i;
-            for (int j = 0; j < Note.N; ++j) {
-//                int val = audiobuf2[j] >> 4;
-                int val = audioBuf[j] >> 4;
-                int clipVal = val < -(1 << 24) ? 0x8000 : val >= (1 << 24) ? 0x7fff : val >> 9;
-                // TODO: maybe some dithering?
-                if (j < jmax) {
-                    deque.add(clipVal);
-                } else {
-                    extraBuf[j - jmax] = clipVal;
-                }
+        for (; i < nSamples; i += context.n) {
+//            computeVoices(true, true);
+            computeVoices(false, false);
+            // TODO: maybe some dithering?
+            for (int j = 0; j < context.n; ++j) {
+                extraBuf[j] = clip(sumBuf[j]);
             }
+            // a block at once, the rest kept
+            int jmax = Math.min(nSamples - i, context.n);
+            ring.write(extraBuf, 0, jmax);
+            System.arraycopy(extraBuf, jmax, extraBuf, 0, context.n - jmax);
         }
         extraBufSize = i - nSamples;
-//logger.log(Level.DEBUG, "deque: " + deque.size());
+//logger.log(Level.DEBUG, "ring: " + ring.size());
     }
 }
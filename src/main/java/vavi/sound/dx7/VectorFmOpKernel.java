@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.dx7;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+import static jdk.incubator.vector.VectorOperators.ASHR;
+
+
+/**
+ * {@link FmOpKernel.Lanes} on {@code jdk.incubator.vector}, one lane per voice.
+ * <p>
+ * The lane count follows the preferred long vector because the gain multiply
+ * needs 64 bits, e.g. 4 voices on AVX2 and 8 on AVX-512. Other group sizes go
+ * to the scalar kernels. Only loaded by {@link FmOpKernel#newLanes(int, SinQuality)} when
+ * the incubator module is present.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (nsano)
+ * @version 0.00 2026/10/17 nsano initial version <br>
+ */
+final class VectorFmOpKernel implements FmOpKernel.Lanes {
+
+    private static final VectorSpecies<Long> LS = LongVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> IS = VectorSpecies.of(int.class, VectorShape.forBitSize(LS.length() * Integer.SIZE));
+
+    private static final int SHIFT = 24 - Sin.SIN_LG_N_SAMPLES;
+    private static final int TABLE_SHIFT = 24 - Sin.TABLE_LG_N_SAMPLES;
+
+    private final int lgN;
+    private final int blockSize;
+    /** {@link SinQuality#LOOKUP} or {@link SinQuality#TABLE} */
+    private final boolean table;
+
+    private final FmOpKernel.Lanes scalar;
+
+    /** gather indices, per instance so that no allocation happens per call */
+    private final int[] index = new int[IS.length()];
+
+    /**
+     * @param lgN log2 of the block size
+     * @param quality {@link SinQuality#LOOKUP} or {@link SinQuality#TABLE}
+     */
+    VectorFmOpKernel(int lgN, SinQuality quality) {
+        this.lgN = lgN;
+        this.blockSize = 1 << lgN;
+        this.table = quality == SinQuality.TABLE;
+        this.scalar = new FmOpKernel.ScalarLanes(lgN, quality);
+    }
+
+    @Override
+    public int width() {
+        return IS.length();
+    }
+
+    // the sine and the gain are written out in each kernel, not called: a
+    // helper taking vectors which the jit compiles on its own first is not
+    // inlined later, and its vectors are boxed, gigabytes a second. the sine
+    // is Sin#lookup or Sin#lookupTable, |dy| < 2^17 and the low bits < 2^14
+    // so their product fits in int, the gain multiplies in 64 bits
+
+    @Override
+    public void compute(int[] output, int[] input, int[] phase, int[] freq, int[] gain1, int[] gain2, int n, boolean add) {
+        if (n != IS.length()) {
+            scalar.compute(output, input, phase, freq, gain1, gain2, n, add);
+            return;
+        }
+        IntVector gain = IntVector.fromArray(IS, gain1, 0);
+        IntVector dGain = IntVector.fromArray(IS, gain2, 0).sub(gain).add(blockSize >> 1).lanewise(ASHR, lgN);
+        IntVector ph = IntVector.fromArray(IS, phase, 0);
+        IntVector f = IntVector.fromArray(IS, freq, 0);
+        for (int i = 0; i < blockSize * n; i += n) {
+            gain = gain.add(dGain);
+            IntVector x = ph.add(IntVector.fromArray(IS, input, i));
+            IntVector s;
+            if (table) {
+                x.add(1 << (TABLE_SHIFT - 1)).lanewise(ASHR, TABLE_SHIFT).and(Sin.table.length - 1).intoArray(index, 0);
+                s = IntVector.fromArray(IS, Sin.table, 0, index, 0);
+            } else {
+                x.lanewise(ASHR, SHIFT - 1).and((Sin.SIN_N_SAMPLES - 1) << 1).intoArray(index, 0);
+                IntVector dy = IntVector.fromArray(IS, Sin.sinTab, 0, index, 0);
+                s = IntVector.fromArray(IS, Sin.sinTab, 1, index, 0).add(dy.mul(x.and((1 << SHIFT) - 1)).lanewise(ASHR, SHIFT));
+            }
+            IntVector y = (IntVector) ((LongVector) s.castShape(LS, 0)).mul((LongVector) gain.castShape(LS, 0)).lanewise(ASHR, 24).castShape(IS, 0);
+            if (add) {
+                y = y.add(IntVector.fromArray(IS, output, i));
+            }
+            y.intoArray(output, i);
+            ph = ph.add(f);
+        }
+    }
+
+    @Override
+    public void computePure(int[] output, int[] phase, int[] freq, int[] gain1, int[] gain2, int n, boolean add) {
+        if (n != IS.length()) {
+            scalar.computePure(output, phase, freq, gain1, gain2, n, add);
+            return;
+        }
+        IntVector gain = IntVector.fromArray(IS, gain1, 0);
+        IntVector dGain = IntVector.fromArray(IS, gain2, 0).sub(gain).add(blockSize >> 1).lanewise(ASHR, lgN);
+        IntVector ph = IntVector.fromArray(IS, phase, 0);
+        IntVector f = IntVector.fromArray(IS, freq, 0);
+        for (int i = 0; i < blockSize * n; i += n) {
+            gain = gain.add(dGain);
+            IntVector s;
+            if (table) {
+                ph.add(1 << (TABLE_SHIFT - 1)).lanewise(ASHR, TABLE_SHIFT).and(Sin.table.length - 1).intoArray(index, 0);
+                s = IntVector.fromArray(IS, Sin.table, 0, index, 0);
+            } else {
+                ph.lanewise(ASHR, SHIFT - 1).and((Sin.SIN_N_SAMPLES - 1) << 1).intoArray(index, 0);
+                IntVector dy = IntVector.fromArray(IS, Sin.sinTab, 0, index, 0);
+                s = IntVector.fromArray(IS, Sin.sinTab, 1, index, 0).add(dy.mul(ph.and((1 << SHIFT) - 1)).lanewise(ASHR, SHIFT));
+            }
+            IntVector y = (IntVector) ((LongVector) s.castShape(LS, 0)).mul((LongVector) gain.castShape(LS, 0)).lanewise(ASHR, 24).castShape(IS, 0);
+            if (add) {
+                y = y.add(IntVector.fromArray(IS, output, i));
+            }
+            y.intoArray(output, i);
+            ph = ph.add(f);
+        }
+    }
+
+    @Override
+    public void computeFb(int[] output, int[] phase, int[] freq, int[] gain1, int[] gain2, int[] fbBuf, int[] fbShift, int n, boolean add) {
+        if (n != IS.length()) {
+            scalar.computeFb(output, phase, freq, gain1, gain2, fbBuf, fbShift, n, add);
+            return;
+        }
+        IntVector gain = IntVector.fromArray(IS, gain1, 0);
+        IntVector dGain = IntVector.fromArray(IS, gain2, 0).sub(gain).add(blockSize >> 1).lanewise(ASHR, lgN);
+        IntVector ph = IntVector.fromArray(IS, phase, 0);
+        IntVector f = IntVector.fromArray(IS, freq, 0);
+        IntVector shift = IntVector.fromArray(IS, fbShift, 0).add(1);
+        IntVector y0 = IntVector.fromArray(IS, fbBuf, 0);
+        IntVector y = IntVector.fromArray(IS, fbBuf, n);
+        for (int i = 0; i < blockSize * n; i += n) {
+            gain = gain.add(dGain);
+            IntVector x = ph.add(y0.add(y).lanewise(ASHR, shift));
+            y0 = y;
+            IntVector s;
+            if (table) {
+                x.add(1 << (TABLE_SHIFT - 1)).lanewise(ASHR, TABLE_SHIFT).and(Sin.table.length - 1).intoArray(index, 0);
+                s = IntVector.fromArray(IS, Sin.table, 0, index, 0);
+            } else {
+                x.lanewise(ASHR, SHIFT - 1).and((Sin.SIN_N_SAMPLES - 1) << 1).intoArray(index, 0);
+                IntVector dy = IntVector.fromArray(IS, Sin.sinTab, 0, index, 0);
+                s = IntVector.fromArray(IS, Sin.sinTab, 1, index, 0).add(dy.mul(x.and((1 << SHIFT) - 1)).lanewise(ASHR, SHIFT));
+            }
+            y = (IntVector) ((LongVector) s.castShape(LS, 0)).mul((LongVector) gain.castShape(LS, 0)).lanewise(ASHR, 24).castShape(IS, 0);
+            if (add) {
+                y.add(IntVector.fromArray(IS, output, i)).intoArray(output, i);
+            } else {
+                y.intoArray(output, i);
+            }
+            ph = ph.add(f);
+        }
+        y0.intoArray(fbBuf, 0);
+        y.intoArray(fbBuf, n);
+    }
+}
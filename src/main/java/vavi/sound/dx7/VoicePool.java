@@ -0,0 +1,585 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.dx7;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Structure of arrays voice pool for massive polyphony.
+ * <p>
+ * Phase, frequency, gain, envelope and feedback state of every voice live in
+ * flat primitive arrays, operator slots side by side. Each block the live
+ * voices are ordered by algorithm and by which operators are audible, so
+ * that voices taking the same path through {@link FmCore} are rendered
+ * together, operator slot by operator slot, in lane groups of
+ * {@link FmOpKernel.Lanes}. A voice sounds the same as a {@link Note} with
+ * the same patch.
+ * <p>
+ * A voice belongs to a part, voices of different parts are rendered
+ * together but each part is mixed apart, with its own pitch bend and LFO,
+ * so that a multi-timbral synthesizer shares one pool among its parts. See
+ * {@link #VoicePool(Context, int, int)}.
+ * <p>
+ * A voice may start at any sample into a block, its blocks are mixed that
+ * much later, see {@link #noteOn(CompiledPatch, int, int, int, int)}.
+ * <p>
+ * A released voice is reaped, returned to the pool, as soon as all of its
+ * carriers have fallen under the audibility threshold, from then on it
+ * would render nothing but zeros. See {@link #isLive(int)}. Operators
+ * which can never sound are not computed at all, and neither are the ones
+ * feeding silent carriers only, see {@link FmCore#cull(int, int, boolean)}.
+ * <p>
+ * With {@link #setForkJoinPool(ForkJoinPool)} the lane groups of a block are
+ * split into runs of about the same cost and rendered by workers of the pool,
+ * each into a mix of its own. The mixes are added up in run order, the output
+ * is the same for any number of threads.
+ * <p>
+ * Not thread safe.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (nsano)
+ * @version 0.00 2026/10/17 nsano initial version <br>
+ */
+public class VoicePool {
+
+    private final Context context;
+    private final int capacity;
+    private final int parts;
+    private final int pitchUnit;
+
+    private SinQuality quality = SinQuality.LOOKUP;
+    private final int width;
+
+    // per voice
+    private final int[] part;
+    private final int[] algorithm;
+    /** operators writing to the output, see {@link FmCore#carriers(int)} */
+    private final int[] carriers;
+    /** see {@link Note#operators(byte[], int, int)} */
+    private final int[] operators;
+    private final int[] fbShift;
+    private final int[] pitchModDepth;
+    private final int[] pitchModSens;
+    /** older sample at 2 * voice, newer at 2 * voice + 1 */
+    private final int[] fbBuf;
+    private final int[] pitchEnv;
+    /** algorithm, feedback and audible operators, voices with the same key are rendered together */
+    private final int[] key;
+    /** samples into a block the voice started at, its blocks are mixed that much later */
+    private final int[] delay;
+    /** {@link Context#n} by voice, the samples of a delayed voice's block going into the next one */
+    private final int[] tail;
+
+    // per operator slot, at op * capacity + voice
+    private final int[] basePitch;
+    private final int[] phase;
+    private final int[] freq;
+    private final int[] gain1;
+    private final int[] gain2;
+    private final int[] env;
+
+    private final boolean[] live;
+
+    /** stack of free voices */
+    private final int[] free;
+    private int freeCount;
+    /** live voices in render order */
+    private final int[] order;
+    private int liveCount;
+
+    // lane groups of a block, in render order
+    private final int[] unitFirst;
+    private final int[] unitCount;
+    /** {@link FmCore#cost(int, int, boolean)} by voices, to split the work evenly */
+    private final int[] unitCost;
+    private int units;
+
+    // per part, for compute() of a single part
+    /** live voices by part */
+    private final int[] partSize;
+    private final int[] partLfoVal;
+    private final int[] partLfoDelay;
+    private final Note.Controllers[] partCtrls;
+
+    /** renders alone when there is no pool */
+    private Worker serial;
+    private ForkJoinPool pool;
+    private Worker[] workers = {};
+
+    /** the runs of a block are rendered with this, reused */
+    @SuppressWarnings("serial") // never serialized
+    private final class Worker extends RecursiveAction {
+        final FmOpKernel.Lanes lanes;
+        final int[] steps = new int[6];
+        final int[] groupPhase;
+        final int[] groupFreq;
+        final int[] groupGain1;
+        final int[] groupGain2;
+        final int[] groupFbBuf;
+        final int[] groupFbShift;
+        final int[][] bus;
+        /** a partial mix, padded so that workers don't share cache lines */
+        final long[] mix;
+        /** units [from, to) */
+        int from, to;
+
+        Worker(SinQuality quality) {
+            FmOpKernel.Lanes lanes = FmOpKernel.newLanes(context.lgN, quality);
+            this.lanes = lanes.width() == width ? lanes : new FmOpKernel.ScalarLanes(context.lgN, quality);
+            groupPhase = new int[width];
+            groupFreq = new int[width];
+            groupGain1 = new int[width];
+            groupGain2 = new int[width];
+            groupFbBuf = new int[width * 2];
+            groupFbShift = new int[width];
+            // output, bus 1, bus 2
+            bus = new int[3][context.n * width];
+            mix = new long[parts * context.n + PAD];
+        }
+
+        @Override
+        protected void compute() {
+            Arrays.fill(mix, 0, parts * context.n, 0);
+            render(mix);
+        }
+
+        /** renders units [from, to) into {@code mix} */
+        void render(long[] mix) {
+            int lastKey = -1;
+            for (int u = from; u < to; u++) {
+                int first = unitFirst[u];
+                int k = key[order[first]];
+                if (k != lastKey) {
+                    FmCore.plan(k >> 7, k & 0x3f, (k & 0x40) != 0, steps);
+                    lastKey = k;
+                }
+                computeGroup(mix, first, unitCount[u]);
+            }
+        }
+
+        /** renders voices order[first, first + n) along {@link #steps} */
+        private void computeGroup(long[] mix, int first, int n) {
+            int[] output = bus[0];
+            Arrays.fill(output, 0, context.n * n, 0);
+            for (int l = 0; l < n; l++) {
+                int v = order[first + l];
+                groupFbBuf[l] = fbBuf[v * 2];
+                groupFbBuf[n + l] = fbBuf[v * 2 + 1];
+                groupFbShift[l] = fbShift[v];
+            }
+            for (int op = 0; op < 6; op++) {
+                int step = steps[op];
+                int kind = step & 3;
+                if (kind == FmCore.SKIP) {
+                    continue;
+                }
+                for (int l = 0; l < n; l++) {
+                    int k = op * capacity + order[first + l];
+                    groupPhase[l] = phase[k];
+                    groupFreq[l] = freq[k];
+                    groupGain1[l] = gain1[k];
+                    groupGain2[l] = gain2[k];
+                }
+                int[] out = bus[(step >> 4) & 3];
+                boolean add = (step & (1 << 6)) != 0;
+                switch (kind) {
+                case FmCore.PURE -> lanes.computePure(out, groupPhase, groupFreq, groupGain1, groupGain2, n, add);
+                case FmCore.FB -> lanes.computeFb(out, groupPhase, groupFreq, groupGain1, groupGain2, groupFbBuf, groupFbShift, n, add);
+                case FmCore.MOD -> lanes.compute(out, bus[(step >> 2) & 3], groupPhase, groupFreq, groupGain1, groupGain2, n, add);
+                }
+            }
+            for (int l = 0; l < n; l++) {
+                int v = order[first + l];
+                fbBuf[v * 2] = groupFbBuf[l];
+                fbBuf[v * 2 + 1] = groupFbBuf[n + l];
+            }
+            boolean delayed = false;
+            for (int l = 0; l < n; l++) {
+                delayed |= delay[order[first + l]] != 0;
+            }
+            if (parts == 1 && !delayed) {
+                for (int i = 0, j = 0; i < context.n; i++) {
+                    long sum = 0;
+                    for (int l = 0; l < n; l++, j++) {
+                        sum += output[j];
+                    }
+                    mix[i] += sum;
+                }
+            } else {
+                for (int l = 0; l < n; l++) {
+                    int v = order[first + l];
+                    int offset = part[v] * context.n;
+                    int d = delay[v];
+                    if (d == 0) {
+                        for (int i = 0, j = l; i < context.n; i++, j += n) {
+                            mix[offset + i] += output[j];
+                        }
+                        continue;
+                    }
+                    // the end of the last block, then this one up to where the next takes over
+                    int t = v * context.n;
+                    for (int i = 0; i < d; i++) {
+                        mix[offset + i] += tail[t + i];
+                    }
+                    int i = 0;
+                    int j = l;
+                    for (; i < context.n - d; i++, j += n) {
+                        mix[offset + d + i] += output[j];
+                    }
+                    for (; i < context.n; i++, j += n) {
+                        tail[t + i - (context.n - d)] = output[j];
+                    }
+                }
+            }
+        }
+    }
+
+    /** longs after a partial mix, a cache line */
+    private static final int PAD = 8;
+
+    /**
+     * @param capacity max number of voices, not limited other than by memory
+     */
+    public VoicePool(Context context, int capacity) {
+        this(context, capacity, 1);
+    }
+
+    /**
+     * @param capacity max number of voices, not limited other than by memory
+     * @param parts number of parts sharing the voices, each is mixed apart
+     */
+    public VoicePool(Context context, int capacity, int parts) {
+        this.context = context;
+        this.capacity = capacity;
+        this.parts = parts;
+        this.pitchUnit = PitchEnv.unit(context.sampleRate, context.n);
+        this.width = FmOpKernel.newLanes(context.lgN, quality).width();
+
+        part = new int[capacity];
+        algorithm = new int[capacity];
+        carriers = new int[capacity];
+        operators = new int[capacity];
+        live = new boolean[capacity];
+        fbShift = new int[capacity];
+        pitchModDepth = new int[capacity];
+        pitchModSens = new int[capacity];
+        fbBuf = new int[capacity * 2];
+        pitchEnv = new int[capacity * PitchEnv.STRIDE];
+        key = new int[capacity];
+        delay = new int[capacity];
+        tail = new int[capacity * context.n];
+
+        basePitch = new int[capacity * 6];
+        phase = new int[capacity * 6];
+        freq = new int[capacity * 6];
+        gain1 = new int[capacity * 6];
+        gain2 = new int[capacity * 6];
+        env = new int[capacity * 6 * Env.STRIDE];
+
+        free = new int[capacity];
+        for (int v = 0; v < capacity; v++) {
+            free[v] = capacity - 1 - v;
+        }
+        freeCount = capacity;
+        order = new int[capacity];
+
+        unitFirst = new int[capacity];
+        unitCount = new int[capacity];
+        unitCost = new int[capacity];
+        partSize = new int[parts];
+        partLfoVal = new int[parts];
+        partLfoDelay = new int[parts];
+        partCtrls = new Note.Controllers[parts];
+        serial = new Worker(quality);
+    }
+
+    /**
+     * For all voices, {@link SinQuality#LOOKUP} by default. The lane groups
+     * keep their width.
+     */
+    public void setSinQuality(SinQuality quality) {
+        this.quality = quality;
+        serial = new Worker(quality);
+        setForkJoinPool(pool);
+    }
+
+    /**
+     * Renders on the workers of {@code pool}, null to render on the calling
+     * thread only, the default.
+     */
+    public void setForkJoinPool(ForkJoinPool pool) {
+        this.pool = pool;
+        int n = pool != null ? pool.getParallelism() : 0;
+        workers = new Worker[n];
+        for (int w = 0; w < n; w++) {
+            workers[w] = new Worker(quality);
+        }
+    }
+
+    /** max number of voices */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** number of parts */
+    public int parts() {
+        return parts;
+    }
+
+    /** number of voices in use */
+    public int size() {
+        return liveCount;
+    }
+
+    /** number of voices of a part in use */
+    public int size(int part) {
+        return partSize[part];
+    }
+
+    /** false after {@link #free(int)} or when the voice has been reaped */
+    public boolean isLive(int voice) {
+        return live[voice];
+    }
+
+    /**
+     * Starts a voice, compiles the patch when it is new, see
+     * {@link CompiledPatch#of(byte[])}, not for the rendering thread.
+     *
+     * @return the voice, or -1 when the pool is full
+     */
+    public int noteOn(byte[] patch, int midiNote, int velocity) {
+        return noteOn(CompiledPatch.of(patch), midiNote, velocity);
+    }
+
+    /**
+     * Starts a voice.
+     *
+     * @return the voice, or -1 when the pool is full
+     */
+    public int noteOn(CompiledPatch patch, int midiNote, int velocity) {
+        return noteOn(patch, midiNote, velocity, 0);
+    }
+
+    /**
+     * Starts a voice of a part.
+     *
+     * @param part [0, {@link #parts()})
+     * @return the voice, or -1 when the pool is full
+     */
+    public int noteOn(CompiledPatch patch, int midiNote, int velocity, int part) {
+        return noteOn(patch, midiNote, velocity, part, 0);
+    }
+
+    /**
+     * Starts a voice of a part at a sample into the next block, it sounds
+     * from there on.
+     *
+     * @param part [0, {@link #parts()})
+     * @param delay [0, {@link Context#n})
+     * @return the voice, or -1 when the pool is full
+     */
+    public int noteOn(CompiledPatch patch, int midiNote, int velocity, int part, int delay) {
+        if (freeCount == 0) {
+            return -1;
+        }
+        int v = free[--freeCount];
+        this.part[v] = part;
+        this.delay[v] = delay;
+        Arrays.fill(tail, v * context.n, v * context.n + delay, 0);
+        partSize[part]++;
+        for (int op = 0; op < 6; op++) {
+            int k = op * capacity + v;
+            Env.init(env, k * Env.STRIDE, patch.rates[op], patch.levels[op], patch.outLevel(op, midiNote, velocity), patch.rateScaling(op, midiNote), context.lgN);
+            basePitch[k] = patch.basePitch(op, midiNote);
+            phase[k] = 0;
+            gain2[k] = 0;
+        }
+        PitchEnv.set(pitchEnv, v * PitchEnv.STRIDE, pitchUnit, patch.pitchRates, patch.pitchLevels);
+        algorithm[v] = patch.algorithm;
+        operators[v] = patch.operators(midiNote, velocity);
+        carriers[v] = FmCore.carriers(algorithm[v]) & operators[v];
+        live[v] = true;
+        fbShift[v] = patch.fbShift;
+        pitchModDepth[v] = patch.pitchModDepth;
+        pitchModSens[v] = patch.pitchModSens;
+        fbBuf[v * 2] = 0;
+        fbBuf[v * 2 + 1] = 0;
+        order[liveCount++] = v;
+        return v;
+    }
+
+    /** releases the keys of a voice, it keeps sounding until {@link #free(int)} */
+    public void keyUp(int voice) {
+        for (int op = 0; op < 6; op++) {
+            Env.keyDown(env, (op * capacity + voice) * Env.STRIDE, false);
+        }
+        PitchEnv.keyDown(pitchEnv, voice * PitchEnv.STRIDE, false);
+    }
+
+    /** returns a voice to the pool, nothing happens when it is not live */
+    public void free(int voice) {
+        if (!live[voice]) {
+            return;
+        }
+        for (int n = 0; n < liveCount; n++) {
+            if (order[n] == voice) {
+                System.arraycopy(order, n + 1, order, n, liveCount - n - 1);
+                liveCount--;
+                break;
+            }
+        }
+        live[voice] = false;
+        partSize[part[voice]]--;
+        free[freeCount++] = voice;
+    }
+
+    /** whether the carriers of the voice, inaudible in this block, stay so, switched off ones don't count */
+    private boolean isFinished(int v) {
+        for (int op = 0; op < 6; op++) {
+            if ((carriers[v] & (1 << op)) != 0 && !Env.isFalling(env, (op * capacity + v) * Env.STRIDE)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Renders one block of all voices and reaps finished ones, all parts
+     * take the same LFO and controllers.
+     *
+     * @param mix {@link Context#n} samples for each part, voices are added
+     */
+    public void compute(long[] mix, int lfoVal, int lfoDelay, Note.Controllers ctrls) {
+        Arrays.fill(partLfoVal, lfoVal);
+        Arrays.fill(partLfoDelay, lfoDelay);
+        Arrays.fill(partCtrls, ctrls);
+        compute(mix, partLfoVal, partLfoDelay, partCtrls);
+    }
+
+    /**
+     * Renders one block of all voices and reaps finished ones.
+     *
+     * @param mix {@link Context#n} samples for each part, part {@code p} at
+     *            {@code p * context.n}, voices are added
+     * @param lfoVal by part
+     * @param lfoDelay by part
+     * @param ctrls by part
+     */
+    public void compute(long[] mix, int[] lfoVal, int[] lfoDelay, Note.Controllers[] ctrls) {
+        int alive = 0;
+        for (int n = 0; n < liveCount; n++) {
+            int v = order[n];
+            int p = part[v];
+            int pb = (ctrls[p].values[Note.kControllerPitch] - 0x2000) << 9;
+            int pitchMod = PitchEnv.getSample(pitchEnv, v * PitchEnv.STRIDE);
+            long pmd = (long) pitchModDepth[v] * lfoDelay[p]; // Q32
+            int sensLfo = pitchModSens[v] * (lfoVal[p] - (1 << 23));
+            pitchMod += (int) ((pmd * sensLfo) >> 39);
+            pitchMod += pb;
+            int audible = 0;
+            for (int op = 0; op < 6; op++) {
+                int k = op * capacity + v;
+                gain1[k] = gain2[k];
+                if ((operators[v] & (1 << op)) == 0) {
+                    continue; // stays silent, gains are 0
+                }
+                if (!Env.isHeld(env, k * Env.STRIDE)) { // otherwise the gain is the last one
+                    int level = Env.getSample(env, k * Env.STRIDE);
+                    gain2[k] = Exp2.lookup(level - (14 * (1 << 24)));
+                }
+                freq[k] = context.freqLut.lookup(basePitch[k] + pitchMod);
+                if (FmCore.isAudible(gain1[k], gain2[k])) {
+                    audible |= 1 << op;
+                }
+            }
+            if ((audible & carriers[v]) == 0 && isFinished(v)) {
+                live[v] = false;
+                partSize[p]--;
+                free[freeCount++] = v;
+                continue;
+            }
+            boolean feedback = fbShift[v] < 16;
+            key[v] = algorithm[v] << 7 | (feedback ? 1 << 6 : 0) | FmCore.cull(algorithm[v], audible, feedback);
+            order[alive++] = v;
+        }
+        liveCount = alive;
+
+        // insertion sort, the order hardly changes from block to block
+        for (int i = 1; i < liveCount; i++) {
+            int v = order[i];
+            int k = key[v];
+            int j = i - 1;
+            while (j >= 0 && key[order[j]] > k) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = v;
+        }
+
+        units = 0;
+        int total = 0;
+        for (int start = 0; start < liveCount; ) {
+            int k = key[order[start]];
+            int end = start + 1;
+            while (end < liveCount && key[order[end]] == k) {
+                end++;
+            }
+            int cost = FmCore.cost(k >> 7, k & 0x3f, (k & 0x40) != 0);
+            for (int i = start; i < end; i += width) {
+                unitFirst[units] = i;
+                unitCount[units] = Math.min(width, end - i);
+                unitCost[units] = cost * unitCount[units];
+                total += unitCost[units];
+                units++;
+            }
+            start = end;
+        }
+
+        int runs = Math.min(workers.length, units);
+        if (runs < 2) {
+            serial.from = 0;
+            serial.to = units;
+            serial.render(mix);
+        } else {
+            // even cost runs, cut where the running cost passes its share
+            int u = 0;
+            long sum = 0;
+            for (int w = 0; w < runs; w++) {
+                workers[w].from = u;
+                long share = total * (long) (w + 1) / runs;
+                do { // one at least, and one left for each run to come
+                    sum += unitCost[u++];
+                } while (sum < share && u < units - (runs - w - 1));
+                workers[w].to = w == runs - 1 ? units : u;
+                workers[w].reinitialize();
+            }
+            for (int w = 1; w < runs; w++) {
+                pool.execute(workers[w]);
+            }
+            workers[0].invoke();
+            for (int w = 0; w < runs; w++) {
+                long[] partial = workers[w].mix;
+                if (w > 0) {
+                    workers[w].join();
+                }
+                for (int i = 0; i < parts * context.n; i++) {
+                    mix[i] += partial[i];
+                }
+            }
+        }
+
+        for (int n = 0; n < liveCount; n++) {
+            int v = order[n];
+            for (int op = 0; op < 6; op++) {
+                int k = op * capacity + v;
+                phase[k] += freq[k] << context.lgN;
+            }
+        }
+    }
+}
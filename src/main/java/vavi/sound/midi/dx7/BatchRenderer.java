@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.midi.dx7;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+import static java.lang.System.getLogger;
+
+
+/**
+ * Renders many MIDI files at once by {@link OfflineRenderer}, a job by
+ * worker.
+ * <p>
+ * The workers are as many as given, the cores by default, rendering is
+ * cpu bound. {@link #submit(Job)} blocks while as many jobs as the queue
+ * holds are waiting, so that a producer can't run ahead. Sine, exp2 and
+ * frequency tables, {@link vavi.sound.dx7.Context} and compiled patches are
+ * shared by all jobs, a job has an engine of its own.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (nsano)
+ * @version 0.00 2026/10/17 nsano initial version <br>
+ */
+public class BatchRenderer implements AutoCloseable {
+
+    private static final Logger logger = getLogger(BatchRenderer.class.getName());
+
+    /**
+     * What to render.
+     *
+     * @param renderer of the bank, may be shared by jobs
+     * @param output a wave file, removed when the job fails or is cancelled
+     */
+    public record Job(Path midi, OfflineRenderer renderer, Path output) {}
+
+    /** A submitted job. */
+    public final class Task {
+
+        private final Job job;
+        private Future<Void> future;
+        /** estimated by the sequence, 0 until read */
+        private volatile long totalFrames;
+        private volatile long frames;
+
+        private Task(Job job) {
+            this.job = job;
+        }
+
+        public Job getJob() {
+            return job;
+        }
+
+        /** frames written so far */
+        public long getFrames() {
+            return frames;
+        }
+
+        /** [0, 1], the tail after the last event is not estimated */
+        public double getProgress() {
+            if (future.isDone()) {
+                return 1;
+            }
+            long total = totalFrames;
+            return total == 0 ? 0 : Math.min(1, frames / (double) total);
+        }
+
+        /** stops rendering, the output is removed */
+        public void cancel() {
+            future.cancel(true);
+        }
+
+        public boolean isDone() {
+            return future.isDone();
+        }
+
+        public boolean isCancelled() {
+            return future.isCancelled();
+        }
+
+        /**
+         * Waits for the job.
+         *
+         * @throws ExecutionException when rendering failed
+         * @throws CancellationException when cancelled
+         */
+        public void await() throws InterruptedException, ExecutionException {
+            future.get();
+        }
+
+        private void run() throws IOException, InvalidMidiDataException {
+            long start = System.nanoTime();
+            try {
+                Sequence sequence = MidiSystem.getSequence(job.midi.toFile());
+                AudioInputStream pcm = job.renderer.render(sequence);
+                float frameRate = pcm.getFormat().getFrameRate();
+                totalFrames = (long) (sequence.getMicrosecondLength() * frameRate / 1_000_000);
+                int frameSize = pcm.getFormat().getFrameSize();
+                InputStream counted = new FilterInputStream(pcm) {
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        if (Thread.interrupted()) {
+                            throw new InterruptedIOException(job.midi.toString());
+                        }
+                        int n = super.read(b, off, len);
+                        if (n > 0) {
+                            frames += n / frameSize;
+                        }
+                        return n;
+                    }
+                };
+                AudioSystem.write(new AudioInputStream(counted, pcm.getFormat(), AudioSystem.NOT_SPECIFIED), AudioFileFormat.Type.WAVE, job.output.toFile());
+                done.incrementAndGet();
+                audioNanos.addAndGet((long) (frames / (double) frameRate * 1e9));
+                renderNanos.addAndGet(System.nanoTime() - start);
+            } catch (Exception e) {
+                Files.deleteIfExists(job.output);
+                if (!future.isCancelled()) {
+                    failed.incrementAndGet();
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Throughput so far.
+     *
+     * @param elapsed seconds since the renderer was created
+     * @param audio seconds rendered by finished jobs
+     * @param render seconds the finished jobs took, added up over workers
+     */
+    public record Report(int done, int failed, double elapsed, double audio, double render) {
+
+        public double filesPerMinute() {
+            return elapsed == 0 ? 0 : done * 60 / elapsed;
+        }
+
+        /** audio seconds by wall clock second, all workers together */
+        public double realtimeFactor() {
+            return elapsed == 0 ? 0 : audio / elapsed;
+        }
+
+        /** audio seconds by render second of a worker */
+        public double realtimeFactorPerWorker() {
+            return render == 0 ? 0 : audio / render;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("done: %d, failed: %d, %.1f files/min, x%.1f realtime (x%.1f per worker)",
+                    done, failed, filesPerMinute(), realtimeFactor(), realtimeFactorPerWorker());
+        }
+    }
+
+    private final ExecutorService executor;
+    /** running and waiting jobs */
+    private final Semaphore permits;
+    private final long start = System.nanoTime();
+
+    private final AtomicInteger done = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong audioNanos = new AtomicLong();
+    private final AtomicLong renderNanos = new AtomicLong();
+
+    /** as many workers as cores, as many waiting jobs as workers */
+    public BatchRenderer() {
+        this(Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param workers jobs rendered at once
+     * @param queue jobs waiting at most, {@link #submit(Job)} blocks beyond
+     */
+    public BatchRenderer(int workers, int queue) {
+        AtomicInteger count = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(workers, r -> {
+            Thread thread = new Thread(r, "dx7-batch-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        permits = new Semaphore(workers + queue);
+    }
+
+    /** queues a job, waits while the queue is full */
+    public Task submit(Job job) throws InterruptedException {
+        permits.acquire();
+        Task task = new Task(job);
+        FutureTask<Void> future = new FutureTask<>(() -> {
+            task.run();
+            return null;
+        }) {
+            @Override
+            protected void done() { // cancelled before running too
+                permits.release();
+            }
+        };
+        task.future = future;
+        try {
+            executor.execute(future);
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+        return task;
+    }
+
+    public Report report() {
+        return new Report(done.get(), failed.get(), (System.nanoTime() - start) / 1e9, audioNanos.get() / 1e9, renderNanos.get() / 1e9);
+    }
+
+    /** waits for the jobs submitted, stops them when interrupted, the interrupt kept */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Renders files into a directory.
+     *
+     * @param args [-bank unpacked.bin] outDir in.mid ..., without a bank {@link Dx7Soundbank}
+     */
+    public static void main(String[] args) throws Exception {
+        int i = 0;
+        OfflineRenderer renderer;
+        if (args.length > 1 && args[0].equals("-bank")) {
+            renderer = new OfflineRenderer(44100, OfflineRenderer.readBank(Path.of(args[1])), null);
+            i = 2;
+        } else {
+            renderer = new OfflineRenderer(44100);
+        }
+        if (args.length < i + 2) {
+            System.err.println("usage: " + BatchRenderer.class.getName() + " [-bank unpacked.bin] outDir in.mid ...");
+            System.exit(1);
+        }
+        Path outDir = Files.createDirectories(Path.of(args[i++]));
+        List<Task> tasks = new ArrayList<>();
+        try (BatchRenderer batch = new BatchRenderer()) {
+            for (; i < args.length; i++) {
+                Path midi = Path.of(args[i]);
+                String name = midi.getFileName().toString().replaceFirst("\\.[^.]*$", "") + ".wav";
+                tasks.add(batch.submit(new Job(midi, renderer, outDir.resolve(name))));
+            }
+            for (Task task : tasks) {
+                try {
+                    task.await();
+                } catch (ExecutionException e) {
+logger.log(Level.DEBUG, e.getCause().getMessage(), e.getCause());
+                    System.err.println(task.getJob().midi() + ": " + e.getCause());
+                }
+            }
+            System.err.println(batch.report());
+        }
+    }
+}
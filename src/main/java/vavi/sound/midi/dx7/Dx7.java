@@ -8,12 +8,15 @@ package vavi.sound.midi.dx7;
 
 import java.lang.System.Logger;
 import java.lang.System.Logger.Level;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
+import vavi.sound.dx7.BlockAdapter;
+import vavi.sound.dx7.CompiledPatch;
 import vavi.sound.dx7.Context;
+import vavi.sound.dx7.Lfo;
 import vavi.sound.dx7.Note;
 import vavi.sound.dx7.ResoFilter;
+import vavi.sound.dx7.SinQuality;
 
 import static java.lang.System.getLogger;
 
@@ -28,15 +31,6 @@ class Dx7 {
 
     private static final Logger logger = getLogger(Dx7.class.getName());
 
-    static final int BUFFER_SIZE = Note.N;
-
-    private static class ActiveNote {
-        boolean keyDown;
-        // TODO should be use the value in SoftVoice?
-        boolean sustained;
-        Note note;
-    }
-
     // in MIDI units (0x4000 is neutral)
     private final Note.Controllers controllers;
 
@@ -44,47 +38,104 @@ class Dx7 {
 
     private final int[] filterControl = new int[3];
 
-    // TODO should be use the value in SoftVoice?
-    private boolean sustain;
+    /** of the synthesizer, shared with its voices */
+    private VoiceTable voices = new VoiceTable();
 
     Dx7() {
         filterControl[0] = 258847126;
         filterControl[1] = 0;
         filterControl[2] = 0;
-        sustain = false;
         controllers = new Note.Controllers(0x2000);
     }
 
     private Context context = null;
 
+    /** of this voice */
+    private Lfo lfo;
+
+    /**
+     * {@code vavi.sound.dx7.blockSize}, from 16 to 512, or {@code auto} to align
+     * to the buffer gervill reads at its control rate of 147Hz, {@link Note#N}
+     * when no size divides it, e.g. 300 samples at 44.1kHz
+     */
+    private static int blockSize(float sampleRate) {
+        String blockSize = System.getProperty("vavi.sound.dx7.blockSize", String.valueOf(Note.N));
+        return "auto".equals(blockSize) ? BlockAdapter.alignedBlockSize((int) (sampleRate / 147), Note.N) : Integer.parseInt(blockSize);
+    }
+
     void setSampleRate(float sampleRate) {
         if (this.context == null) {
-            this.context = Context.getInstance(sampleRate);
-            filter = new ResoFilter(context);
-        }
-        if (this.context.sampleRate != sampleRate) {
+            this.context = Context.getInstance(sampleRate, blockSize(sampleRate));
+        } else if (this.context.sampleRate != sampleRate) {
 logger.log(Level.DEBUG, "sampleRate: " + sampleRate);
-            this.context.setSampleRate(sampleRate);
+            // contexts are shared, another one keeping the block size
+            this.context = Context.getInstance(sampleRate, context.n);
+            if (activeNote != null) {
+                // made again with the new context, its envelopes start over
+                activeNote.note = new Note(context, patch, noteNumber, velocity);
+                activeNote.note.setSinQuality(sinQuality);
+                if (!activeNote.keyDown && !activeNote.sustained) {
+                    activeNote.note.keyUp();
+                }
+            }
+        } else {
+            return;
         }
+        filter = new ResoFilter(context);
+        lfo = new Lfo(context);
     }
 
-    private static final List<Dx7.ActiveNote> activeNotes = new ArrayList<>();
+    /** valid after {@link #setSampleRate(float)} */
+    int getBlockSize() {
+        return context.n;
+    }
 
-    private Dx7.ActiveNote activeNote;
+    /** a voice plays on the notes of the synthesizer it is of */
+    void setVoices(VoiceTable voices) {
+        this.voices = voices;
+    }
+
+    VoiceTable getVoices() {
+        return voices;
+    }
+
+    private VoiceTable.ActiveNote activeNote;
+    /** of {@link #activeNote} */
+    private CompiledPatch patch;
+    private int noteNumber;
+    private int velocity;
 
-    private final int[] audioBuf = new int[BUFFER_SIZE];
-    private final int[] audioBuf2 = new int[BUFFER_SIZE];
+    private final int[] audioBuf = new int[Context.MAX_BLOCK_SIZE];
+    private final int[] audioBuf2 = new int[Context.MAX_BLOCK_SIZE];
 
-    void write(int offset, int len, int i, float[] buffer, float[] extraBuf) {
-        int lfoValue = context.lfo.getSample();
-        int lfoDelay = context.lfo.getDelay();
+    /** renders in float straight into the gervill buffer, {@code vavi.sound.dx7.float} */
+    private final boolean floatEngine = Boolean.parseBoolean(System.getProperty("vavi.sound.dx7.float", "false"));
+
+    /** sine tier, {@code vavi.sound.dx7.sin} */
+    private final SinQuality sinQuality = SinQuality.valueOf(System.getProperty("vavi.sound.dx7.sin", SinQuality.LOOKUP.name()));
+
+    /** Q24 full scale to the level of the fixed point path, which is 16 bit of 28 */
+    private static final float FLOAT_SCALE = 1f / 16;
+
+    /** renders one block into {@code buffer[offset, offset + block size)} */
+    void render(float[] buffer, int offset) {
+        voices.update();
+        int n = context.n;
+        if (activeNote == null) { // no note on yet
+            Arrays.fill(buffer, offset, offset + n, 0);
+            return;
+        }
+        if (floatEngine) {
+            renderFloat(buffer, offset);
+            return;
+        }
+        int lfoValue = lfo.getSample();
+        int lfoDelay = lfo.getDelay();
+        Arrays.fill(audioBuf, 0, n, 0); // carriers are added
         activeNote.note.compute(audioBuf, lfoValue, lfoDelay, controllers);
 //        activeNote.note.compute(audioBuf, 0, 0, controllers);
-        int[][] bufs = { audioBuf };
-        int[][] bufs2 = { audioBuf2 };
-        filter.process(bufs, filterControl, filterControl, bufs2);
-        int jmax = len - i;
-        for (int j = 0; j < Note.N; j++) {
+        filter.process(audioBuf, filterControl, filterControl, audioBuf2);
+        for (int j = 0; j < n; j++) {
             int val = audioBuf2[j] >> 4;
 //            int val = audioBuf[j] >> 4;
             int clipVal = val < -(1 << 24) ? 0x8000 : val >= (1 << 24) ? 0x7fff : val >> 9;
@@ -98,44 +149,77 @@ logger.log(Level.DEBUG, "sampleRate: " + sampleRate);
             if (f < -1) {
                 f = -1;
             }
-            if (j < jmax) {
-                buffer[offset + i + j] = f;
-            } else {
-                extraBuf[j - jmax] = f;
-            }
+            buffer[offset + j] = f;
         }
     }
 
-    void noteOn(byte[] patch, int noteNumber, int velocity) {
-        context.lfo.keyDown();
-        activeNote = new Dx7.ActiveNote();
+    /** not clipped, gervill mixes voices in float */
+    private void renderFloat(float[] buffer, int offset) {
+        int n = context.n;
+        int lfoValue = lfo.getSample();
+        int lfoDelay = lfo.getDelay();
+        Arrays.fill(buffer, offset, offset + n, 0); // carriers are added
+        activeNote.note.compute(buffer, offset, lfoValue, lfoDelay, controllers);
+        filter.process(buffer, offset, filterControl, filterControl, buffer, offset);
+        for (int j = offset; j < offset + n; j++) {
+            buffer[j] *= FLOAT_SCALE;
+        }
+    }
+
+    /** @param patch compiled ahead, nothing is compiled here on the rendering thread */
+    void noteOn(CompiledPatch patch, int noteNumber, int velocity) {
+        voices.update();
+        lfo.keyDown();
+        this.patch = patch;
+        this.noteNumber = noteNumber;
+        this.velocity = velocity;
+        if (activeNote == null) {
+            activeNote = new VoiceTable.ActiveNote();
+            activeNote.note = new Note(context, this.patch, noteNumber, velocity);
+        } else {
+            // recycled, the last note can't be held by the pedal any more
+            voices.remove(activeNote);
+            activeNote.note.reset(this.patch, noteNumber, velocity);
+        }
         activeNote.keyDown = true;
-        activeNote.sustained = sustain;
-        activeNote.note = new Note(context, patch, noteNumber, velocity);
-        activeNotes.add(activeNote);
+        activeNote.sustained = voices.isSustain();
+        activeNote.note.setSinQuality(sinQuality);
+        voices.add(activeNote);
     }
 
     void noteOff() {
-        if (activeNote.keyDown) {
-            if (sustain) {
+        voices.update();
+        if (activeNote != null && activeNote.keyDown) {
+            if (voices.isSustain()) {
                 activeNote.sustained = true;
             } else {
                 activeNote.note.keyUp();
-                activeNotes.remove(activeNote);
+                voices.remove(activeNote);
             }
             activeNote.keyDown = false;
         }
     }
 
+    /** @param patch a single voice dump at {@code ofs}, see {@link #loadVoice(byte[], byte[], int)} */
     public void programChange(int p, byte[] patch, int ofs) {
         // TODO location
         byte[] b = Dx7Soundbank.getDirectBuffer(p);
-        System.arraycopy(patch, ofs, b, 0, b.length);
-        context.lfo.reset(b, 137);
+        loadVoice(b, patch, ofs);
+        Dx7Soundbank.recompile(b);
+        lfo.reset(b, 137);
 
 logger.log(Level.DEBUG, "Loaded patch " + p + ": " + new String(b, 145, 10));
     }
 
+    /**
+     * The 155 bytes of a single voice dump into an unpacked patch, the
+     * checksum which follows is not taken, all the operators are on.
+     */
+    static void loadVoice(byte[] b, byte[] dump, int ofs) {
+        System.arraycopy(dump, ofs, b, 0, 155);
+        b[155] = 0x3f;
+    }
+
     public void sysex(byte[] b) {
         // TODO impl
     }
@@ -144,30 +228,21 @@ logger.log(Level.DEBUG, "Loaded patch " + p + ": " + new String(b, 145, 10));
         switch (controller) {
         case 1:
             filterControl[0] = 142365917 + value * 917175;
-logger.log(Level.DEBUG, "control change: " + controller + ", " + value);
             break;
         case 2:
             filterControl[1] = value * 528416;
-logger.log(Level.DEBUG, "control change: " + controller + ", " + value);
             break;
         case 3:
             filterControl[2] = value * 528416;
-logger.log(Level.DEBUG, "control change: " + controller + ", " + value);
             break;
         case 64:
-            sustain = value != 0;
-            if (!sustain) {
-                for (ActiveNote activeNote : activeNotes) {
-                    if (activeNote.sustained && !activeNote.keyDown) {
-                        activeNote.note.keyUp();
-                        activeNote.sustained = false;
-                        activeNotes.remove(activeNote);
-                    }
-                }
-            }
-logger.log(Level.DEBUG, "control change: " + controller + ", " + value);
+            // released by the voices as they render
+            voices.setSustain(value != 0);
             break;
         }
         controllers.values[controller] = value;
+        if (logger.isLoggable(Level.DEBUG)) { // no string built on the audio thread otherwise
+logger.log(Level.DEBUG, "control change: " + controller + ", " + value);
+        }
     }
 }
@@ -16,10 +16,13 @@ import javax.sound.midi.Patch;
 import javax.sound.midi.VoiceStatus;
 
 import com.sun.media.sound.ModelAbstractOscillator;
+import com.sun.media.sound.ModelOscillatorStream;
 import com.sun.media.sound.SimpleInstrument;
 
 import com.sun.media.sound.ModelPatch;
 
+import vavi.sound.dx7.BlockAdapter;
+
 import static java.lang.System.getLogger;
 
 
@@ -47,9 +50,16 @@ public class Dx7Oscillator extends ModelAbstractOscillator {
         return dx7;
     }
 
-    // Extra buffering for when GetSamples wants a buffer not a multiple of N
-    private final float[] extraBuf = new float[Dx7.BUFFER_SIZE];
-    private int extraBufSize;
+    /** fits dx7 blocks into gervill reads */
+    private BlockAdapter adapter;
+
+    /** a voice, which shares the notes held by the pedal with this */
+    @Override
+    public ModelOscillatorStream open(float sampleRate) {
+        Dx7Oscillator voice = (Dx7Oscillator) super.open(sampleRate);
+        voice.dx7.setVoices(dx7.getVoices());
+        return voice;
+    }
 
     @Override
     public void init() {
@@ -60,6 +70,9 @@ public class Dx7Oscillator extends ModelAbstractOscillator {
     @Override
     public void setSampleRate(float sampleRate) {
         dx7.setSampleRate(sampleRate);
+        if (adapter == null || adapter.blockSize() != dx7.getBlockSize()) {
+            adapter = new BlockAdapter(dx7.getBlockSize(), dx7::render);
+        }
         super.setSampleRate(sampleRate);
     }
 
@@ -83,12 +96,9 @@ public class Dx7Oscillator extends ModelAbstractOscillator {
 //logger.log(Level.DEBUG, "channel: " + voice.channel + ", patch: " + voice.bank + "," + voice.program);
 try {
             // TODO how to define drums
-            if (voice.channel != 9) {
-                dx7.noteOn((byte[]) getInstrument(new Patch(voice.bank, voice.program)).getData(), noteNumber, velocity);
-            } else {
-                byte[][] drums = (byte[][]) getInstrument(new ModelPatch(voice.bank, voice.program, true)).getData();
-                dx7.noteOn(drums[noteNumber], noteNumber, velocity);
-            }
+            Patch patch = voice.channel != 9 ? new Patch(voice.bank, voice.program) : new ModelPatch(voice.bank, voice.program, true);
+            Dx7Soundbank.Dx7Instrument instrument = (Dx7Soundbank.Dx7Instrument) getInstrument(patch);
+            dx7.noteOn(instrument.getCompiledPatch(noteNumber), noteNumber, velocity);
 } catch (Throwable t) {
  logger.log(Level.ERROR, "ch: " + voice.channel + ", note: " + noteNumber);
 }
@@ -106,7 +116,7 @@ try {
     }
 
     /**
-     * Dx7.BUFFER_SIZE = 64, len = 300
+     * block size = 64, len = 300
      *
      * @see "com.sun.media.sound.SoftVoice#processControlLogic()"
      */
@@ -116,21 +126,7 @@ try {
         // Grab channel 0 buffer from buffers
         float[] buffer = buffers[0];
 
-        int i = 0;
-        for (; i < len && i < extraBufSize; i++) {
-            buffer[offset + i] = extraBuf[i];
-        }
-        if (extraBufSize > len) {
-            System.arraycopy(extraBuf, len, extraBuf, 0, extraBufSize - len);
-            extraBufSize -= len;
-            return len;
-        }
-
-        for (; i < len; i += Dx7.BUFFER_SIZE) {
-            dx7.write(offset, len, i, buffer, extraBuf);
-        }
-
-        extraBufSize = i - len;
+        adapter.read(buffer, offset, len);
 
         return len;
     }
@@ -11,6 +11,7 @@ import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.lang.System.Logger;
 import java.lang.System.Logger.Level;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
@@ -23,6 +24,8 @@ import javax.sound.midi.SoundbankResource;
 import com.sun.media.sound.ModelPatch;
 import com.sun.media.sound.SimpleInstrument;
 
+import vavi.sound.dx7.CompiledPatch;
+
 import static java.lang.System.getLogger;
 
 
@@ -40,6 +43,8 @@ public class Dx7Soundbank implements Soundbank {
     /** */
     public static class Dx7Instrument extends SimpleInstrument {
         Object data;
+        /** of {@link #data}, by key for percussion, resolved here so that a note on compiles nothing */
+        private final CompiledPatch[] compiled;
         protected Dx7Instrument(int bank, int program, boolean isPercussion, Object data) {
             setPatch(new ModelPatch(bank, program, isPercussion));
             if (isPercussion && !(data instanceof byte[][])) {
@@ -49,6 +54,34 @@ public class Dx7Soundbank implements Soundbank {
                 throw new IllegalArgumentException("melodic data must be byte[]");
             }
             this.data = data;
+            if (isPercussion) {
+                byte[][] patches = (byte[][]) data;
+                compiled = new CompiledPatch[patches.length];
+                for (int i = 0; i < patches.length; i++) {
+                    compiled[i] = CompiledPatch.of(patches[i]);
+                }
+            } else {
+                compiled = new CompiledPatch[] { CompiledPatch.of((byte[]) data) };
+            }
+        }
+
+        /** what a note of {@code key} plays */
+        CompiledPatch getCompiledPatch(int key) {
+            return compiled[getPatch().isPercussion() ? key : 0];
+        }
+
+        /** compiles again where {@code patch} has been changed in place */
+        void recompile(byte[] patch, CompiledPatch patchCompiled) {
+            if (getPatch().isPercussion()) {
+                byte[][] patches = (byte[][]) data;
+                for (int i = 0; i < patches.length; i++) {
+                    if (patches[i] == patch) {
+                        compiled[i] = patchCompiled;
+                    }
+                }
+            } else if (data == patch) {
+                compiled[0] = patchCompiled;
+            }
         }
 
         @Override
@@ -81,6 +114,9 @@ logger.log(Level.DEBUG, "patchs: " + n);
             for (int i = 0; i < n; i++) {
                 dis.readFully(b[i]);
             }
+            // the instruments take theirs from the cache, see CompiledPatch#of
+            String cache = System.getProperty("vavi.sound.dx7.patchCache");
+            CompiledPatch.compile(b, cache != null ? Path.of(cache) : null);
 
             Properties props = new Properties();
             props.load(Dx7Soundbank.class.getResourceAsStream("/dx7.properties"));
@@ -108,6 +144,19 @@ logger.log(Level.DEBUG, "patchs: " + n);
         return (byte[]) instruments.get("0." + p).getData();
     }
 
+    /** after a patch of {@link #getDirectBuffer(int)} has been changed */
+    static void recompile(byte[] patch) {
+        CompiledPatch compiled = CompiledPatch.of(patch);
+        for (Instrument instrument : instruments.values()) {
+            ((Dx7Instrument) instrument).recompile(patch, compiled);
+        }
+    }
+
+    /** patches by key */
+    static byte[][] getDrums() {
+        return (byte[][]) instruments.get("p.0.0").getData();
+    }
+
     @Override
     public String getName() {
         return "Dx7Soundbank";
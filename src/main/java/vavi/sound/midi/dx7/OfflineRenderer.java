@@ -0,0 +1,625 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.midi.dx7;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+import vavi.sound.dx7.CompiledPatch;
+import vavi.sound.dx7.Note;
+import vavi.sound.dx7.SynthUnit;
+
+import static java.lang.System.getLogger;
+
+
+/**
+ * Renders a standard MIDI file into PCM as fast as the cpu goes, without a
+ * clock or an audio device.
+ * <p>
+ * Event times are taken from the tempo map in samples, not from the wall
+ * clock. Events are scheduled on the engine at their samples, notes and
+ * program changes take effect at their very sample, controller changes at
+ * the nearest block, see {@link SynthUnit#schedule(long, int, int, int)}
+ * and {@link #setBlockSize(int)}. After the last event the rendering goes on
+ * until all voices have faded out, {@link #MAX_TAIL} seconds at most.
+ * <p>
+ * Channel 10 plays the drum kit when there is one, a patch by key.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (nsano)
+ * @version 0.00 2026/10/17 nsano initial version <br>
+ */
+public class OfflineRenderer {
+
+    private static final Logger logger = getLogger(OfflineRenderer.class.getName());
+
+    /** seconds after the last event at most */
+    public static final float MAX_TAIL = 10;
+
+    /** the drum channel, 0 origin */
+    private static final int DRUMS = 9;
+
+    private final float sampleRate;
+    /** by program, wrapped around when shorter than 128 */
+    private final CompiledPatch[] programs;
+    /** by key, null for none */
+    private final CompiledPatch[] drums;
+
+    private int polyphony = 64;
+    private int blockSize = Note.N;
+
+    /** with {@link Dx7Soundbank} */
+    public OfflineRenderer(float sampleRate) {
+        this(sampleRate, defaultPrograms(), Dx7Soundbank.getDrums());
+    }
+
+    /**
+     * @param programs unpacked patches by program
+     * @param drums unpacked patches by key for channel 10, null to play it as the others
+     */
+    public OfflineRenderer(float sampleRate, byte[][] programs, byte[][] drums) {
+        this.sampleRate = sampleRate;
+        this.programs = compile(programs);
+        this.drums = drums != null ? compile(drums) : null;
+    }
+
+    /** once for all engines, none compiles on a program change */
+    private static CompiledPatch[] compile(byte[][] patches) {
+        CompiledPatch[] compiled = new CompiledPatch[patches.length];
+        for (int i = 0; i < patches.length; i++) {
+            compiled[i] = patches[i] != null ? CompiledPatch.of(patches[i]) : null;
+        }
+        return compiled;
+    }
+
+    private static byte[][] defaultPrograms() {
+        byte[][] programs = new byte[128][];
+        for (int p = 0; p < programs.length; p++) {
+            programs[p] = Dx7Soundbank.getDirectBuffer(p);
+        }
+        return programs;
+    }
+
+    /** unpacked patches of 156 bytes one after another, as {@code unpacked.bin} */
+    public static byte[][] readBank(Path file) throws IOException {
+        byte[] bank = Files.readAllBytes(file);
+        byte[][] programs = new byte[bank.length / 156][];
+        for (int p = 0; p < programs.length; p++) {
+            programs[p] = new byte[156];
+            System.arraycopy(bank, p * 156, programs[p], 0, 156);
+        }
+        return programs;
+    }
+
+    /** max number of notes sounding at once, 64 by default */
+    public void setPolyphony(int polyphony) {
+        this.polyphony = polyphony;
+    }
+
+    /** see {@link vavi.sound.dx7.Context#getInstance(float, int)}, {@link Note#N} by default */
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    /** 16 bit mono */
+    public AudioFormat getFormat() {
+        return new AudioFormat(sampleRate, 16, 1, true, false);
+    }
+
+    /** a message at a sample */
+    record Event(long sample, MidiMessage message) {}
+
+    /**
+     * The events of all tracks in time order, at samples by the tempo map.
+     * Events at the same tick keep the order of their tracks.
+     */
+    List<Event> events(Sequence sequence) {
+        List<MidiEvent> merged = new ArrayList<>();
+        for (Track track : sequence.getTracks()) {
+            for (int i = 0; i < track.size(); i++) {
+                merged.add(track.get(i));
+            }
+        }
+        merged.sort((a, b) -> Long.compare(a.getTick(), b.getTick())); // stable
+
+        List<Event> events = new ArrayList<>(merged.size());
+        int resolution = sequence.getResolution();
+        float division = sequence.getDivisionType();
+        long tempo = 500_000; // µs per quarter note, 120 bpm
+        long tempoTick = 0;
+        long microsTimesResolution = 0; // at tempoTick, exact
+        for (MidiEvent event : merged) {
+            long tick = event.getTick();
+            long sample;
+            if (division == Sequence.PPQ) {
+                double micros = (microsTimesResolution + (tick - tempoTick) * tempo) / (double) resolution;
+                sample = Math.round(micros * sampleRate / 1_000_000);
+            } else { // smpte, ticks per frame
+                sample = Math.round(tick * sampleRate / (division * resolution));
+            }
+            MidiMessage message = event.getMessage();
+            if (message instanceof MetaMessage meta && meta.getType() == 0x51 && meta.getData().length == 3) {
+                byte[] data = meta.getData();
+                microsTimesResolution += (tick - tempoTick) * tempo;
+                tempoTick = tick;
+                tempo = (data[0] & 0xff) << 16 | (data[1] & 0xff) << 8 | (data[2] & 0xff);
+            } else if (message instanceof ShortMessage) {
+                events.add(new Event(sample, message));
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Renders as the stream is read, {@link AudioSystem#NOT_SPECIFIED}
+     * frames long.
+     */
+    public AudioInputStream render(Sequence sequence) {
+        return new AudioInputStream(new Serial(new Cursor(events(sequence))), getFormat(), AudioSystem.NOT_SPECIFIED);
+    }
+
+    /**
+     * Renders segments of a sequence at once on {@code executor}, the same as
+     * {@link #render(Sequence)}.
+     * <p>
+     * A sequence is cut where no key has been held for {@link #SILENCE}
+     * seconds. A segment starts with an engine fast forwarded through the
+     * events before it without sounding, see {@link SynthUnit#setDry(boolean)}.
+     * Where the engine of the segment before is in the same state at the
+     * cut, nothing sounding, the segments are joined as rendered, otherwise
+     * the segment is rendered again by that engine. See {@link #getJoins()}
+     * and {@link #getRejoins()}.
+     * <p>
+     * Segments are rendered as far ahead of the reader as the executor has
+     * threads, one more, so that only those are kept in memory whatever the
+     * length of the sequence.
+     *
+     * @param segments number of segments wanted, fewer when the sequence has no rests for more
+     */
+    public AudioInputStream render(Sequence sequence, ExecutorService executor, int segments) {
+        List<Event> events = events(sequence);
+        long[] cuts = cuts(events, segments);
+        IntFunction<Future<Segment>> submit = i -> {
+            long from = i == 0 ? 0 : cuts[i - 1];
+            long to = i == cuts.length ? Long.MAX_VALUE : cuts[i];
+            return executor.submit(() -> segment(events, from, to));
+        };
+logger.log(Level.DEBUG, "segments: " + (cuts.length + 1));
+        return new AudioInputStream(new Joined(cuts, submit, parallelism(executor) + 1, new Cursor(events)), getFormat(), AudioSystem.NOT_SPECIFIED);
+    }
+
+    /** threads of an executor, of the cpu when unknown */
+    private static int parallelism(ExecutorService executor) {
+        if (executor instanceof ThreadPoolExecutor pool) {
+            return pool.getMaximumPoolSize();
+        } else if (executor instanceof ForkJoinPool pool) {
+            return pool.getParallelism();
+        } else {
+            return Runtime.getRuntime().availableProcessors();
+        }
+    }
+
+    /** seconds without a key held at least, for a cut */
+    public static final float SILENCE = 1;
+
+    /**
+     * Block aligned samples where to cut, at the note on after a rest, the
+     * nearest to even lengths. No event is in the block before a cut, so
+     * that an engine fast forwarded is the same there as one rendered
+     * through.
+     */
+    long[] cuts(List<Event> events, int segments) {
+        List<Long> candidates = new ArrayList<>();
+        int[] held = new int[16];
+        boolean[] sustain = new boolean[16];
+        long quiet = 0; // since, -1 while held
+        for (int i = 0; i < events.size(); i++) {
+            ShortMessage message = (ShortMessage) events.get(i).message;
+            long sample = events.get(i).sample;
+            int channel = message.getChannel();
+            int command = message.getCommand();
+            if (command == ShortMessage.NOTE_ON && message.getData2() != 0) {
+                long cut = sample / blockSize * blockSize;
+                if (quiet >= 0 && cut > 0 && cut - quiet >= SILENCE * sampleRate) {
+                    int j = i;
+                    while (j > 0 && events.get(j - 1).sample >= cut) {
+                        j--;
+                    }
+                    if (j == 0 || events.get(j - 1).sample <= cut - blockSize) {
+                        candidates.add(cut);
+                    }
+                }
+                held[channel]++;
+                quiet = -1;
+            } else if (command == ShortMessage.NOTE_ON || command == ShortMessage.NOTE_OFF) {
+                held[channel] = Math.max(0, held[channel] - 1);
+            } else if (command == ShortMessage.CONTROL_CHANGE && message.getData1() == 64) {
+                sustain[channel] = message.getData2() != 0;
+            }
+            if (quiet < 0) {
+                boolean any = false;
+                for (int c = 0; c < 16; c++) {
+                    any |= held[c] > 0 || sustain[c];
+                }
+                if (!any) {
+                    quiet = sample;
+                }
+            }
+        }
+        long length = events.isEmpty() ? 0 : events.get(events.size() - 1).sample;
+        List<Long> cuts = new ArrayList<>();
+        for (int k = 1; k < segments && !candidates.isEmpty(); k++) {
+            long target = length * k / segments;
+            long nearest = candidates.get(0);
+            for (long candidate : candidates) {
+                if (Math.abs(candidate - target) < Math.abs(nearest - target)) {
+                    nearest = candidate;
+                }
+            }
+            if (!cuts.contains(nearest)) {
+                cuts.add(nearest);
+            }
+        }
+        return cuts.stream().sorted().mapToLong(Long::longValue).toArray();
+    }
+
+    /** samples rendered at once at most */
+    private static final int CHUNK = 4096;
+
+    /** an engine going through the events */
+    private class Cursor {
+
+        final SynthUnit unit;
+        final List<Event> events;
+        int next;
+        /** samples rendered */
+        long position;
+        /** the sample of the last event */
+        final long last;
+        /** no more samples after */
+        final long limit;
+
+        Cursor(List<Event> events) {
+            this.events = events;
+            this.unit = new SynthUnit(sampleRate, polyphony, blockSize);
+            for (int channel = 0; channel < SynthUnit.PARTS; channel++) {
+                unit.programChange(channel, programs[0]);
+            }
+            unit.setPrograms(programs);
+            if (drums != null) {
+                unit.setKit(DRUMS, drums);
+            }
+            last = events.isEmpty() ? 0 : events.get(events.size() - 1).sample;
+            limit = last + (long) (MAX_TAIL * sampleRate);
+        }
+
+        /** @return false when the queue of the engine is full */
+        boolean schedule(Event event) {
+            ShortMessage message = (ShortMessage) event.message;
+            if (message.getCommand() == ShortMessage.PROGRAM_CHANGE && message.getChannel() == DRUMS && drums != null) {
+                return true; // the kit plays
+            }
+            return unit.schedule(event.sample, message.getStatus(), message.getData1(), message.getData2());
+        }
+
+        /**
+         * Renders the next chunk, the events on the blocks rendered for it
+         * scheduled before.
+         *
+         * @param to Long.MAX_VALUE for the end, the tail included
+         * @return samples rendered, 0 at the end
+         */
+        int fill(int[] samples, long to) {
+            if (position >= to) {
+                return 0;
+            }
+            long end;
+            if (next < events.size()) {
+                end = last + 1; // the tail starts the same for any chunks before
+            } else if (unit.getQueueDepth() > 0 || unit.getActiveVoices() > 0) {
+                end = limit;
+            } else {
+                return 0;
+            }
+            int n = (int) Math.min(CHUNK, Math.min(end, to) - position);
+            if (n <= 0) {
+                return 0;
+            }
+            // whole blocks are rendered, the rest of the last one is kept
+            long blocks = (position + n + blockSize - 1) / blockSize * blockSize;
+            while (next < events.size() && events.get(next).sample < blocks) {
+                if (!schedule(events.get(next))) {
+                    // up to the block of the event left
+                    n = (int) Math.max(1, Math.min(n, events.get(next).sample / blockSize * blockSize - position));
+                    break;
+                }
+                next++;
+            }
+            unit.getSamples(n, samples);
+            position += n;
+            return n;
+        }
+
+        /** fast forwards to {@code to} without sounding */
+        void skip(long to) {
+            int[] samples = new int[CHUNK];
+            unit.setDry(true);
+            while (fill(samples, to) > 0) {
+            }
+            unit.setDry(false);
+        }
+    }
+
+    /**
+     * A part of a sequence rendered.
+     *
+     * @param start an engine fast forwarded to the start
+     * @param end the engine at the end
+     */
+    private record Segment(byte[] pcm, Cursor start, Cursor end) {}
+
+    /** renders [from, to) by an engine of its own */
+    private Segment segment(List<Event> events, long from, long to) {
+        Cursor start = new Cursor(events);
+        start.skip(from);
+        Cursor cursor = new Cursor(events);
+        cursor.skip(from);
+        ByteArrayOutputStream pcm = new ByteArrayOutputStream();
+        int[] samples = new int[CHUNK];
+        byte[] bytes = new byte[CHUNK * 2];
+        int n;
+        while ((n = cursor.fill(samples, to)) > 0) {
+            toBytes(samples, n, bytes);
+            pcm.write(bytes, 0, n * 2);
+        }
+        return new Segment(pcm.toByteArray(), start, cursor);
+    }
+
+    private final AtomicInteger joins = new AtomicInteger();
+    private final AtomicInteger rejoins = new AtomicInteger();
+
+    /** segments joined as rendered so far */
+    public int getJoins() {
+        return joins.get();
+    }
+
+    /** segments rendered again, by the engine of the one before, so far */
+    public int getRejoins() {
+        return rejoins.get();
+    }
+
+    /** 16 bit little endian */
+    private static void toBytes(int[] samples, int n, byte[] bytes) {
+        for (int i = 0; i < n; i++) {
+            bytes[i * 2] = (byte) samples[i];
+            bytes[i * 2 + 1] = (byte) (samples[i] >> 8);
+        }
+    }
+
+    /** 16 bit mono little endian, filled as read */
+    private abstract static class Pcm extends InputStream {
+
+        byte[] bytes;
+        int offset;
+        int length;
+        boolean done;
+
+        /** sets the next {@link #bytes}, false at the end */
+        abstract boolean fill() throws IOException;
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == 1 ? b[0] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (offset == length) {
+                if (done) {
+                    return -1;
+                }
+                if (!fill()) {
+                    done = true;
+                    return -1;
+                }
+            }
+            int n = Math.min(len, length - offset);
+            System.arraycopy(bytes, offset, b, off, n);
+            offset += n;
+            return n;
+        }
+    }
+
+    /** rendered by chunk as read */
+    private static class Serial extends Pcm {
+
+        final Cursor cursor;
+        final int[] samples = new int[CHUNK];
+
+        Serial(Cursor cursor) {
+            this.cursor = cursor;
+            bytes = new byte[CHUNK * 2];
+        }
+
+        @Override
+        boolean fill() {
+            int n = cursor.fill(samples, Long.MAX_VALUE);
+            if (n == 0) {
+                cursor.unit.close();
+                return false;
+            }
+            toBytes(samples, n, bytes);
+            offset = 0;
+            length = n * 2;
+            return true;
+        }
+    }
+
+    /** segments in order, a segment which does not join is rendered again */
+    private class Joined extends Pcm {
+
+        final long[] cuts;
+        final IntFunction<Future<Segment>> submit;
+        /** submitted, null when not yet or read */
+        final List<Future<Segment>> segments = new ArrayList<>();
+        /** segments rendered ahead of the one read at most */
+        final int ahead;
+        /** of the next segment */
+        int index;
+        /** the engine at the end of what has been read */
+        Cursor last;
+        /** rendering the segment again, null when not */
+        Cursor cursor;
+        final int[] samples = new int[CHUNK];
+        final byte[] buffer = new byte[CHUNK * 2];
+
+        Joined(long[] cuts, IntFunction<Future<Segment>> submit, int ahead, Cursor first) {
+            this.cuts = cuts;
+            this.submit = submit;
+            this.ahead = ahead;
+            this.last = first;
+            for (int i = 0; i <= cuts.length; i++) {
+                segments.add(i < ahead ? submit.apply(i) : null);
+            }
+        }
+
+        private void cancel() {
+            segments.stream().filter(Objects::nonNull).forEach(f -> f.cancel(true));
+        }
+
+        @Override
+        boolean fill() throws IOException {
+            while (true) {
+                if (cursor != null) {
+                    long to = index - 1 < cuts.length ? cuts[index - 1] : Long.MAX_VALUE;
+                    int n = cursor.fill(samples, to);
+                    if (n > 0) {
+                        toBytes(samples, n, buffer);
+                        bytes = buffer;
+                        offset = 0;
+                        length = n * 2;
+                        return true;
+                    }
+                    last = cursor;
+                    cursor = null;
+                }
+                if (index == segments.size()) {
+                    return false;
+                }
+                Segment segment;
+                try {
+                    segment = segments.get(index).get();
+                } catch (InterruptedException e) {
+                    cancel();
+                    throw new InterruptedIOException(e.getMessage());
+                } catch (ExecutionException e) {
+                    cancel();
+                    throw new IOException(e.getCause());
+                }
+                segments.set(index, null);
+                if (index + ahead < segments.size()) {
+                    segments.set(index + ahead, submit.apply(index + ahead));
+                }
+                index++;
+                if (index == 1 || last.unit.isSameAs(segment.start.unit)) {
+                    if (index > 1) {
+                        joins.incrementAndGet();
+                    }
+                    last = segment.end;
+                    bytes = segment.pcm;
+                    offset = 0;
+                    length = bytes.length;
+                    if (length > 0) {
+                        return true;
+                    }
+                } else {
+logger.log(Level.DEBUG, "rejoin at: " + cuts[index - 2]);
+                    rejoins.incrementAndGet();
+                    cursor = last;
+                }
+            }
+        }
+    }
+
+    /**
+     * Renders a file into a wave file.
+     *
+     * @param args [-j threads] in.mid out.wav [unpacked.bin], without a bank {@link Dx7Soundbank},
+     *             in segments by threads with -j
+     */
+    public static void main(String[] args) throws IOException, InvalidMidiDataException {
+        int i = 0;
+        int threads = 0;
+        if (args.length > 1 && args[0].equals("-j")) {
+            threads = Integer.parseInt(args[1]);
+            i = 2;
+        }
+        if (args.length < i + 2) {
+            System.err.println("usage: " + OfflineRenderer.class.getName() + " [-j threads] in.mid out.wav [unpacked.bin]");
+            System.exit(1);
+        }
+        float sampleRate = 44100;
+        OfflineRenderer renderer;
+        if (args.length > i + 2) {
+            renderer = new OfflineRenderer(sampleRate, readBank(Path.of(args[i + 2])), null);
+        } else {
+            renderer = new OfflineRenderer(sampleRate);
+        }
+        long start = System.nanoTime();
+        Sequence sequence = MidiSystem.getSequence(new File(args[i]));
+        int bytes;
+        if (threads > 0) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                bytes = AudioSystem.write(renderer.render(sequence, executor, threads * 4), AudioFileFormat.Type.WAVE, new File(args[i + 1]));
+            } finally {
+                executor.shutdownNow();
+            }
+logger.log(Level.DEBUG, "joins: " + renderer.getJoins() + ", rejoins: " + renderer.getRejoins());
+        } else {
+            bytes = AudioSystem.write(renderer.render(sequence), AudioFileFormat.Type.WAVE, new File(args[i + 1]));
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        double seconds = bytes / 2.0 / sampleRate;
+logger.log(Level.DEBUG, "bytes: " + bytes);
+        System.err.printf("%s: %.1f s in %.2f s, x%.1f realtime%n", args[i + 1], seconds, elapsed, seconds / elapsed);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.midi.dx7;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import vavi.sound.dx7.Note;
+
+
+/**
+ * The notes of the voices of a synthesizer, which the damper pedal holds.
+ * <p>
+ * A note keeps its index in the table, so adding and removing are O(1), the
+ * last note takes the place of a removed one. Notes are added and removed
+ * by the rendering thread. The pedal may be set from any thread, notes are
+ * released by the rendering thread at {@link #update()}.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (nsano)
+ * @version 0.00 2026/10/17 nsano initial version <br>
+ */
+class VoiceTable {
+
+    /** a note of a voice */
+    static class ActiveNote {
+        boolean keyDown;
+        boolean sustained;
+        Note note;
+
+        /** in {@link #notes}, -1 when not in */
+        private int index = -1;
+    }
+
+    private ActiveNote[] notes = new ActiveNote[64];
+    private int size;
+
+    private volatile boolean sustain;
+    /** times the pedal has been released */
+    private final AtomicInteger releases = new AtomicInteger();
+    /** {@link #releases} done */
+    private int released;
+
+    /** no-op when in already */
+    void add(ActiveNote note) {
+        if (note.index >= 0) {
+            return;
+        }
+        if (size == notes.length) {
+            notes = Arrays.copyOf(notes, size * 2);
+        }
+        note.index = size;
+        notes[size++] = note;
+    }
+
+    /** no-op when not in */
+    void remove(ActiveNote note) {
+        if (note.index < 0) {
+            return;
+        }
+        ActiveNote last = notes[--size];
+        notes[note.index] = last;
+        last.index = note.index;
+        notes[size] = null;
+        note.index = -1;
+    }
+
+    boolean contains(ActiveNote note) {
+        return note.index >= 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** from any thread */
+    void setSustain(boolean sustain) {
+        this.sustain = sustain;
+        if (!sustain) {
+            releases.incrementAndGet();
+        }
+    }
+
+    boolean isSustain() {
+        return sustain;
+    }
+
+    /** releases the notes held by the pedal when it has been released, by the rendering thread */
+    void update() {
+        int releases = this.releases.get();
+        if (releases == released) {
+            return;
+        }
+        released = releases;
+        // backwards, the last one moved into a place removed has been seen
+        for (int i = size - 1; i >= 0; i--) {
+            ActiveNote note = notes[i];
+            if (note.sustained && !note.keyDown) {
+                note.note.keyUp();
+                note.sustained = false;
+                remove(note);
+            }
+        }
+    }
+}
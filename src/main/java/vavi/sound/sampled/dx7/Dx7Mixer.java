@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.sampled.dx7;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Control;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.LineEvent;
+import javax.sound.sampled.LineListener;
+import javax.sound.sampled.Mixer;
+
+
+/**
+ * A mixer of {@link Dx7TargetDataLine}s, as many as opened, a synthesizer
+ * each.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (nsano)
+ * @version 0.00 2026/10/17 nsano initial version <br>
+ */
+public class Dx7Mixer implements Mixer {
+
+    /** the mixer information */
+    public static final Mixer.Info info =
+        new Mixer.Info("DX7 Mixer",
+                       "vavi",
+                       "Software synthesizer for DX7 as a target data line",
+                       "Version 1.0") {};
+
+    /** any sample rate */
+    private static final DataLine.Info lineInfo;
+
+    static {
+        List<AudioFormat> formats = new ArrayList<>();
+        for (int channels = 1; channels <= 2; channels++) {
+            for (boolean bigEndian : new boolean[] { false, true }) {
+                for (int bits : new int[] { 16, 24 }) {
+                    formats.add(new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, AudioSystem.NOT_SPECIFIED, bits, channels,
+                            channels * bits / 8, AudioSystem.NOT_SPECIFIED, bigEndian));
+                }
+                formats.add(new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, AudioSystem.NOT_SPECIFIED, 32, channels,
+                        channels * 4, AudioSystem.NOT_SPECIFIED, bigEndian));
+            }
+        }
+        lineInfo = new DataLine.Info(Dx7TargetDataLine.class, formats.toArray(AudioFormat[]::new),
+                AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED);
+    }
+
+    private final List<Line> lines = new CopyOnWriteArrayList<>();
+
+    private volatile boolean open;
+
+    private final List<LineListener> listeners = new CopyOnWriteArrayList<>();
+
+    void opened(Dx7TargetDataLine line) {
+        lines.add(line);
+    }
+
+    void closed(Dx7TargetDataLine line) {
+        lines.remove(line);
+    }
+
+    @Override
+    public Mixer.Info getMixerInfo() {
+        return info;
+    }
+
+    @Override
+    public Line.Info[] getSourceLineInfo() {
+        return new Line.Info[0];
+    }
+
+    @Override
+    public Line.Info[] getTargetLineInfo() {
+        return new Line.Info[] { lineInfo };
+    }
+
+    @Override
+    public Line.Info[] getSourceLineInfo(Line.Info info) {
+        return new Line.Info[0];
+    }
+
+    @Override
+    public Line.Info[] getTargetLineInfo(Line.Info info) {
+        return isLineSupported(info) ? new Line.Info[] { lineInfo } : new Line.Info[0];
+    }
+
+    /** {@link Dx7TargetDataLine} only, not any {@link javax.sound.sampled.TargetDataLine} */
+    @Override
+    public boolean isLineSupported(Line.Info info) {
+        return Dx7TargetDataLine.class.isAssignableFrom(info.getLineClass()) && info.matches(lineInfo);
+    }
+
+    @Override
+    public Line getLine(Line.Info info) {
+        if (!isLineSupported(info)) {
+            throw new IllegalArgumentException("unsupported line: " + info);
+        }
+        return new Dx7TargetDataLine(this, lineInfo);
+    }
+
+    @Override
+    public int getMaxLines(Line.Info info) {
+        return isLineSupported(info) ? AudioSystem.NOT_SPECIFIED : 0;
+    }
+
+    @Override
+    public Line[] getSourceLines() {
+        return new Line[0];
+    }
+
+    @Override
+    public Line[] getTargetLines() {
+        return lines.toArray(Line[]::new);
+    }
+
+    @Override
+    public void synchronize(Line[] lines, boolean maintainSync) {
+        throw new IllegalArgumentException("synchronization not supported");
+    }
+
+    @Override
+    public void unsynchronize(Line[] lines) {
+        throw new IllegalArgumentException("synchronization not supported");
+    }
+
+    @Override
+    public boolean isSynchronizationSupported(Line[] lines, boolean maintainSync) {
+        return false;
+    }
+
+    @Override
+    public Line.Info getLineInfo() {
+        return new Line.Info(Mixer.class);
+    }
+
+    @Override
+    public void open() {
+        if (!open) {
+            open = true;
+            fire(LineEvent.Type.OPEN);
+        }
+    }
+
+    /** closes the lines too */
+    @Override
+    public void close() {
+        lines.forEach(Line::close);
+        if (open) {
+            open = false;
+            fire(LineEvent.Type.CLOSE);
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public Control[] getControls() {
+        return new Control[0];
+    }
+
+    @Override
+    public boolean isControlSupported(Control.Type control) {
+        return false;
+    }
+
+    @Override
+    public Control getControl(Control.Type control) {
+        throw new IllegalArgumentException("unsupported control: " + control);
+    }
+
+    @Override
+    public void addLineListener(LineListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeLineListener(LineListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void fire(LineEvent.Type type) {
+        LineEvent event = new LineEvent(this, type, AudioSystem.NOT_SPECIFIED);
+        listeners.forEach(l -> l.update(event));
+    }
+}
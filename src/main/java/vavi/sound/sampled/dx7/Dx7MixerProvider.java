@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.sampled.dx7;
+
+import javax.sound.sampled.Mixer;
+import javax.sound.sampled.spi.MixerProvider;
+
+
+/**
+ * Dx7MixerProvider.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (nsano)
+ * @version 0.00 2026/10/17 nsano initial version <br>
+ */
+public class Dx7MixerProvider extends MixerProvider {
+
+    /** */
+    private static final Mixer.Info[] infos = new Mixer.Info[] { Dx7Mixer.info };
+
+    /** */
+    private static final Dx7Mixer mixer = new Dx7Mixer();
+
+    @Override
+    public Mixer.Info[] getMixerInfo() {
+        return infos;
+    }
+
+    @Override
+    public Mixer getMixer(Mixer.Info info) {
+        if (info == Dx7Mixer.info) {
+            return mixer;
+        } else {
+            throw new IllegalArgumentException("not supported: " + info);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.sampled.dx7;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Control;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.LineEvent;
+import javax.sound.sampled.LineListener;
+import javax.sound.sampled.TargetDataLine;
+
+import vavi.sound.dx7.Note;
+import vavi.sound.dx7.SynthUnit;
+
+
+/**
+ * A line which renders a {@link SynthUnit} as it is read, straight into the
+ * reader's bytes, see {@link SynthUnitInputStream}. There is always as much
+ * to read as asked for. Play on it by {@link #getSynthUnit()}.
+ * <p>
+ * Asked for by this class, e.g.
+ * {@code AudioSystem.getLine(new DataLine.Info(Dx7TargetDataLine.class, format))},
+ * so that it is never taken for a capture device.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (nsano)
+ * @version 0.00 2026/10/17 nsano initial version <br>
+ */
+public class Dx7TargetDataLine implements TargetDataLine {
+
+    /** 44.1kHz 16 bit mono little endian */
+    public static final AudioFormat DEFAULT_FORMAT = new AudioFormat(44100, 16, 1, true, false);
+
+    /** max number of notes sounding at once */
+    private static final int POLYPHONY = 16;
+
+    private final Dx7Mixer mixer;
+    private final DataLine.Info info;
+
+    private AudioFormat format = DEFAULT_FORMAT;
+    private int bufferSize;
+    private SynthUnit unit;
+    private SynthUnitInputStream stream;
+    private volatile boolean open;
+    private volatile boolean running;
+    private volatile long frames;
+
+    private final List<LineListener> listeners = new CopyOnWriteArrayList<>();
+
+    Dx7TargetDataLine(Dx7Mixer mixer, DataLine.Info info) {
+        this.mixer = mixer;
+        this.info = info;
+    }
+
+    /** the engine, null until opened */
+    public SynthUnit getSynthUnit() {
+        return unit;
+    }
+
+    /**
+     * @param bufferSize only reported, nothing is buffered
+     * @throws IllegalArgumentException when the format is not supported
+     */
+    @Override
+    public void open(AudioFormat format, int bufferSize) {
+        if (open) {
+            return;
+        }
+        if (!SynthUnitInputStream.isSupported(format) || format.getSampleRate() <= 0) {
+            throw new IllegalArgumentException("unsupported format: " + format);
+        }
+        this.format = format;
+        this.bufferSize = bufferSize > 0 ? bufferSize - bufferSize % format.getFrameSize() :
+                (int) format.getSampleRate() / 10 * format.getFrameSize();
+        unit = new SynthUnit(format.getSampleRate(), POLYPHONY, Note.N);
+        stream = new SynthUnitInputStream(unit, format);
+        frames = 0;
+        open = true;
+        mixer.opened(this);
+        fire(LineEvent.Type.OPEN);
+    }
+
+    @Override
+    public void open(AudioFormat format) {
+        open(format, AudioSystem.NOT_SPECIFIED);
+    }
+
+    @Override
+    public void open() {
+        open(format);
+    }
+
+    @Override
+    public void close() {
+        if (!open) {
+            return;
+        }
+        stop();
+        open = false;
+        unit.close();
+        mixer.closed(this);
+        fire(LineEvent.Type.CLOSE);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /** renders whole frames into {@code b}, as many as fit, 0 when not open */
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (!open) {
+            return 0;
+        }
+        int n = stream.read(b, off, len);
+        frames += n / format.getFrameSize();
+        return n;
+    }
+
+    @Override
+    public void drain() {
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void start() {
+        if (open && !running) {
+            running = true;
+            fire(LineEvent.Type.START);
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (running) {
+            running = false;
+            fire(LineEvent.Type.STOP);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public boolean isActive() {
+        return running;
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /** rendered on demand, a buffer full */
+    @Override
+    public int available() {
+        return open ? bufferSize : 0;
+    }
+
+    @Override
+    public int getFramePosition() {
+        return (int) frames;
+    }
+
+    @Override
+    public long getLongFramePosition() {
+        return frames;
+    }
+
+    @Override
+    public long getMicrosecondPosition() {
+        return (long) (frames * 1_000_000.0 / format.getFrameRate());
+    }
+
+    @Override
+    public float getLevel() {
+        return AudioSystem.NOT_SPECIFIED;
+    }
+
+    @Override
+    public DataLine.Info getLineInfo() {
+        return info;
+    }
+
+    @Override
+    public Control[] getControls() {
+        return new Control[0];
+    }
+
+    @Override
+    public boolean isControlSupported(Control.Type control) {
+        return false;
+    }
+
+    @Override
+    public Control getControl(Control.Type control) {
+        throw new IllegalArgumentException("unsupported control: " + control);
+    }
+
+    @Override
+    public void addLineListener(LineListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeLineListener(LineListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void fire(LineEvent.Type type) {
+        LineEvent event = new LineEvent(this, type, frames);
+        listeners.forEach(l -> l.update(event));
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.sampled.dx7;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+import vavi.sound.dx7.SynthUnit;
+
+
+/**
+ * Renders a {@link SynthUnit} as it is read, into the reader's bytes in the
+ * format asked for. Nothing is rendered ahead and there is no thread, a
+ * reader is served as fast as it reads, like a file.
+ * <p>
+ * 16 or 24 bit signed or 32 bit float, either endian, mono or stereo at
+ * the sample rate of the unit. Stereo is the mono output on both channels.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (nsano)
+ * @version 0.00 2026/10/17 nsano initial version <br>
+ */
+public class SynthUnitInputStream extends InputStream {
+
+    /** frames rendered at once at most */
+    private static final int CHUNK = 1024;
+
+    private final SynthUnit unit;
+    private final int[] samples = new int[CHUNK];
+
+    private final int channels;
+    /** bytes by sample */
+    private final int bytes;
+    private final boolean isFloat;
+    private final boolean bigEndian;
+    private final int frameSize;
+
+    /** @throws IllegalArgumentException when the format is not supported or not at the sample rate of the unit */
+    public SynthUnitInputStream(SynthUnit unit, AudioFormat format) {
+        if (!isSupported(format)) {
+            throw new IllegalArgumentException("unsupported format: " + format);
+        }
+        if (format.getSampleRate() != unit.getSampleRate()) {
+            throw new IllegalArgumentException("sample rate of the unit: " + unit.getSampleRate() + ", format: " + format);
+        }
+        this.unit = unit;
+        this.channels = format.getChannels();
+        this.bytes = format.getSampleSizeInBits() / 8;
+        this.isFloat = format.getEncoding().equals(AudioFormat.Encoding.PCM_FLOAT);
+        this.bigEndian = format.isBigEndian();
+        this.frameSize = format.getFrameSize();
+    }
+
+    /** the sample rate is not looked at, it has to be the one of the unit */
+    public static boolean isSupported(AudioFormat format) {
+        AudioFormat.Encoding encoding = format.getEncoding();
+        int bits = format.getSampleSizeInBits();
+        boolean sample = encoding.equals(AudioFormat.Encoding.PCM_SIGNED) && (bits == 16 || bits == 24) ||
+                encoding.equals(AudioFormat.Encoding.PCM_FLOAT) && bits == 32;
+        int channels = format.getChannels();
+        return sample && (channels == 1 || channels == 2) && format.getFrameSize() == channels * bits / 8;
+    }
+
+    /**
+     * Endless, rendered as read.
+     *
+     * @throws IllegalArgumentException see {@link #SynthUnitInputStream(SynthUnit, AudioFormat)}
+     */
+    public static AudioInputStream getAudioInputStream(SynthUnit unit, AudioFormat format) {
+        return new AudioInputStream(new SynthUnitInputStream(unit, format), format, AudioSystem.NOT_SPECIFIED);
+    }
+
+    /** @throws IOException always, a frame is more than a byte */
+    @Override
+    public int read() throws IOException {
+        throw new IOException("read by frames");
+    }
+
+    /**
+     * Renders whole frames, as many as fit into {@code len} bytes.
+     *
+     * @throws IllegalArgumentException when {@code len} is less than a frame, not 0
+     */
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len > 0 && len < frameSize) {
+            throw new IllegalArgumentException("less than a frame: " + len);
+        }
+        int frames = len / frameSize;
+        for (int i = 0; i < frames; ) {
+            int n = Math.min(CHUNK, frames - i);
+            unit.getSamples(n, samples);
+            encode(n, b, off + i * frameSize);
+            i += n;
+        }
+        return frames * frameSize;
+    }
+
+    private void encode(int n, byte[] b, int off) {
+        for (int i = 0; i < n; i++) {
+            short sample = (short) samples[i];
+            int value = isFloat ? Float.floatToRawIntBits(sample / 32768f) : sample << (bytes - 2) * 8;
+            for (int c = 0; c < channels; c++) {
+                for (int k = 0; k < bytes; k++) {
+                    int shift = bigEndian ? (bytes - 1 - k) * 8 : k * 8;
+                    b[off++] = (byte) (value >> shift);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.dx7;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+import javax.sound.sampled.AudioSystem;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import vavi.sound.midi.dx7.BatchRenderer;
+import vavi.sound.midi.dx7.OfflineRenderer;
+import vavi.util.Debug;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * BatchRendererTest.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (nsano)
+ * @version 0.00 2026/10/17 nsano initial version <br>
+ */
+class BatchRendererTest {
+
+    @TempDir
+    Path dir;
+
+    /** random notes on some channels, about {@code seconds} long at 120 bpm */
+    static Sequence randomSequence(Random random, int seconds) throws Exception {
+        Sequence sequence = new Sequence(Sequence.PPQ, 480);
+        Track track = sequence.createTrack();
+        for (int channel = 0; channel < 4; channel++) {
+            track.add(new MidiEvent(new ShortMessage(ShortMessage.PROGRAM_CHANGE, channel, random.nextInt(128), 0), 0));
+        }
+        for (long tick = 0; tick < seconds * 960L; tick += 120) {
+            int channel = random.nextInt(4);
+            int key = 36 + random.nextInt(60);
+            track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, channel, key, 1 + random.nextInt(127)), tick));
+            track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_OFF, channel, key, 0), tick + 60 + random.nextInt(480)));
+        }
+        return sequence;
+    }
+
+    static byte[] pcm(Path wave) throws Exception {
+        return AudioSystem.getAudioInputStream(wave.toFile()).readAllBytes();
+    }
+
+    /** the same as one by one */
+    @Test
+    void testBatch() throws Exception {
+        Random random = new Random(18);
+        OfflineRenderer renderer = new OfflineRenderer(44100, OfflineRendererTest.randomBank(18), null);
+        List<Path> midis = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            Path midi = dir.resolve(i + ".mid");
+            MidiSystem.write(randomSequence(random, 5), 0, midi.toFile());
+            midis.add(midi);
+        }
+
+        List<BatchRenderer.Task> tasks = new ArrayList<>();
+        BatchRenderer.Report report;
+        try (BatchRenderer batch = new BatchRenderer(3, 1)) {
+            for (Path midi : midis) {
+                tasks.add(batch.submit(new BatchRenderer.Job(midi, renderer, dir.resolve(midi.getFileName() + ".wav"))));
+            }
+            for (BatchRenderer.Task task : tasks) {
+                task.await();
+                assertEquals(1.0, task.getProgress());
+                assertTrue(task.getFrames() >= 5 * 44100);
+            }
+            report = batch.report();
+        }
+Debug.println(report);
+        assertEquals(midis.size(), report.done());
+        assertEquals(0, report.failed());
+        assertTrue(report.realtimeFactor() > 0);
+
+        for (Path midi : midis) {
+            byte[] expected = renderer.render(MidiSystem.getSequence(midi.toFile())).readAllBytes();
+            assertArrayEquals(expected, pcm(dir.resolve(midi.getFileName() + ".wav")), midi.toString());
+        }
+    }
+
+    @Test
+    void testCancel() throws Exception {
+        Random random = new Random(19);
+        OfflineRenderer renderer = new OfflineRenderer(44100, OfflineRendererTest.randomBank(19), null);
+        Path midi = dir.resolve("long.mid");
+        MidiSystem.write(randomSequence(random, 600), 0, midi.toFile());
+        Path output = dir.resolve("long.wav");
+
+        BatchRenderer.Task task;
+        BatchRenderer.Report report;
+        try (BatchRenderer batch = new BatchRenderer(1, 1)) {
+            task = batch.submit(new BatchRenderer.Job(midi, renderer, output));
+            while (task.getFrames() == 0) {
+                Thread.sleep(10);
+            }
+            double progress = task.getProgress();
+Debug.println("progress: " + progress);
+            assertTrue(progress > 0 && progress < 1);
+            task.cancel();
+            assertTrue(task.isCancelled());
+            assertThrows(CancellationException.class, task::await);
+            report = batch.report();
+        }
+        assertFalse(Files.exists(output));
+        assertEquals(0, report.done());
+        assertEquals(0, report.failed());
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.dx7;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * BlockAdapterTest.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (nsano)
+ * @version 0.00 2026/10/17 nsano initial version <br>
+ */
+class BlockAdapterTest {
+
+    @Test
+    void testRead() {
+        Random random = new Random(7);
+        for (int blockSize = Context.MIN_BLOCK_SIZE; blockSize <= Context.MAX_BLOCK_SIZE; blockSize <<= 1) {
+            int n = blockSize;
+            int[] counter = new int[1];
+            BlockAdapter adapter = new BlockAdapter(n, (buffer, offset) -> {
+                for (int i = 0; i < n; i++) {
+                    buffer[offset + i] = counter[0]++;
+                }
+            });
+            float expected = 0;
+            for (int r = 0; r < 200; r++) {
+                int len = r % 2 == 0 ? 300 : random.nextInt(1200);
+                int offset = random.nextInt(10);
+                float[] buffer = new float[offset + len];
+                adapter.read(buffer, offset, len);
+                for (int i = 0; i < len; i++) {
+                    assertEquals(expected++, buffer[offset + i], "block size " + n + ", read " + r + ", sample " + i);
+                }
+                // never renders more than one block ahead
+                assertTrue(counter[0] - expected < n);
+            }
+        }
+    }
+
+    @Test
+    void testAlignedBlockSize() {
+        assertEquals(Note.N, BlockAdapter.alignedBlockSize(300, Note.N));
+        assertEquals(256, BlockAdapter.alignedBlockSize(256, Note.N));
+        assertEquals(32, BlockAdapter.alignedBlockSize(480, Note.N));
+        assertEquals(512, BlockAdapter.alignedBlockSize(4096, Note.N));
+        assertEquals(Note.N, BlockAdapter.alignedBlockSize(8, Note.N));
+        for (int hostSize : new int[] { 256, 320, 480, 4096 }) {
+            assertEquals(0, hostSize % BlockAdapter.alignedBlockSize(hostSize, Note.N));
+        }
+    }
+
+    @Test
+    void testBlockSize() {
+        assertEquals(4, Context.getInstance(44100, 16).lgN);
+        assertEquals(9, Context.getInstance(44100, 512).lgN);
+        assertThrows(IllegalArgumentException.class, () -> Context.getInstance(44100, 8));
+        assertThrows(IllegalArgumentException.class, () -> Context.getInstance(44100, 1024));
+        assertThrows(IllegalArgumentException.class, () -> Context.getInstance(44100, 100));
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.dx7;
+
+import org.junit.jupiter.api.Test;
+
+import vavi.util.Debug;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * CommandQueueTest.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (nsano)
+ * @version 0.00 2026/10/17 nsano initial version <br>
+ */
+class CommandQueueTest {
+
+    @Test
+    void testFull() {
+        CommandQueue queue = new CommandQueue(5);
+        for (int i = 0; i < 8; i++) {
+            assertTrue(queue.offer(i, i));
+        }
+        assertFalse(queue.offer(8, 8));
+        assertEquals(8, queue.size());
+        for (int r = 0; r < 3; r++) { // around
+            assertEquals(r, queue.peekSample());
+            assertEquals(r, queue.poll());
+            assertTrue(queue.offer(8 + r, 8 + r));
+        }
+        for (int i = 3; i < 11; i++) {
+            assertFalse(queue.isEmpty());
+            assertEquals(i, queue.poll());
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    /** all taken, in the order of each producer */
+    @Test
+    void testProducers() throws Exception {
+        CommandQueue queue = new CommandQueue(256);
+        int producers = 4;
+        int count = 50_000;
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            threads[p] = new Thread(() -> {
+                for (int i = 0; i < count; i++) {
+                    while (!queue.offer(i, producer)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            threads[p].start();
+        }
+        long[] next = new long[producers];
+        int maxSize = 0;
+        for (int taken = 0; taken < producers * count; ) {
+            maxSize = Math.max(maxSize, queue.size());
+            if (queue.isEmpty()) {
+                Thread.yield();
+                continue;
+            }
+            long sample = queue.peekSample();
+            int producer = queue.poll();
+            assertEquals(next[producer]++, sample);
+            taken++;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+Debug.println("size max: " + maxSize);
+        assertTrue(queue.isEmpty());
+        assertEquals(0, queue.size());
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.dx7;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import vavi.util.Debug;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * CompiledPatchTest.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (nsano)
+ * @version 0.00 2026/10/17 nsano initial version <br>
+ */
+class CompiledPatchTest {
+
+    static void assertSameTables(byte[] patch, CompiledPatch compiled) {
+        for (int op = 0; op < 6; op++) {
+            for (int key = 0; key < 128; key++) {
+                assertEquals(Note.rateScaling(patch, op, key), compiled.rateScaling(op, key));
+                assertEquals(Note.basePitch(patch, op, key), compiled.basePitch(op, key));
+                for (int velocity = 0; velocity < 128; velocity += 7) {
+                    assertEquals(Note.outLevel(patch, op, key, velocity), compiled.outLevel(op, key, velocity));
+                }
+            }
+        }
+        for (int key = 0; key < 128; key += 3) {
+            for (int velocity = 1; velocity < 128; velocity += 5) {
+                assertEquals(Note.operators(patch, key, velocity), compiled.operators(key, velocity), "key " + key + ", velocity " + velocity);
+            }
+        }
+    }
+
+    @Test
+    void testTables() {
+        Random random = new Random(10);
+        for (int i = 0; i < 32; i++) {
+            byte[] patch = VoicePoolTest.randomPatch(random);
+            patch[155] = (byte) random.nextInt(64);
+            assertSameTables(patch, new CompiledPatch(patch));
+        }
+    }
+
+    @Test
+    void testOf() {
+        byte[] patch = VoicePoolTest.randomPatch(new Random(11));
+        CompiledPatch compiled = CompiledPatch.of(patch);
+        assertSame(compiled, CompiledPatch.of(patch));
+        patch[134] = (byte) ((patch[134] + 1) & 31);
+        CompiledPatch changed = CompiledPatch.of(patch);
+        assertNotSame(compiled, changed);
+        assertTrue(changed.isFrom(patch));
+        assertFalse(compiled.isFrom(patch));
+    }
+
+    @Test
+    void testCache(@TempDir Path dir) throws Exception {
+        Random random = new Random(12);
+        byte[][] bank = new byte[64][];
+        for (int i = 0; i < bank.length; i++) {
+            bank[i] = VoicePoolTest.randomPatch(random);
+        }
+        Path cache = dir.resolve("bank.cpc");
+
+        long t = System.nanoTime();
+        CompiledPatch.compile(bank, cache);
+        long compile = System.nanoTime() - t;
+        assertTrue(Files.exists(cache));
+        long modified = Files.getLastModifiedTime(cache).toMillis();
+
+        t = System.nanoTime();
+        CompiledPatch[] read = CompiledPatch.compile(bank, cache);
+        long load = System.nanoTime() - t;
+Debug.println("compile: " + compile / 1000 + "us, from cache: " + load / 1000 + "us");
+        assertEquals(modified, Files.getLastModifiedTime(cache).toMillis());
+        for (int i = 0; i < bank.length; i++) {
+            assertTrue(read[i].isFrom(bank[i]));
+            assertSame(read[i], CompiledPatch.of(bank[i]));
+            assertSameTables(bank[i], read[i]);
+        }
+
+        // tables derived otherwise, by another version, are compiled again
+        byte[] file = Files.readAllBytes(cache);
+        ByteBuffer.wrap(file).putInt(8, CompiledPatch.derivation() + 1);
+        Files.write(cache, file);
+        CompiledPatch.compile(bank, cache);
+        assertEquals(CompiledPatch.derivation(), ByteBuffer.wrap(Files.readAllBytes(cache)).getInt(8));
+
+        // a changed bank is compiled again
+        bank[3][16] = (byte) ((bank[3][16] + 1) % 100);
+        CompiledPatch[] again = CompiledPatch.compile(bank, cache);
+        assertTrue(again[3].isFrom(bank[3]));
+        assertSameTables(bank[3], again[3]);
+    }
+}
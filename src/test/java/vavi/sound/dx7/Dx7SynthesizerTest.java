@@ -12,6 +12,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Random;
 import java.util.concurrent.CountDownLatch;
 
@@ -243,7 +244,8 @@ Debug.println("drum: " + m);
         filterControl[1] = 0;
         filterControl[2] = 0;
 
-        context.lfo.keyDown();
+        Lfo lfo = new Lfo(context);
+        lfo.keyDown();
         Note note = new Note(context, x, 63, 100);
         Note.Controllers controllers = new Note.Controllers(0x2000);
         int[] buf = new int[Note.N];
@@ -253,8 +255,9 @@ Debug.println("drum: " + m);
             if (i >= nSamples * (7. / 8.)) {
                 note.keyUp();
             }
-            int lfoValue = context.lfo.getSample();
-            int lfoDelay = context.lfo.getDelay();
+            int lfoValue = lfo.getSample();
+            int lfoDelay = lfo.getDelay();
+            Arrays.fill(buf, 0);
             note.compute(buf, lfoValue, lfoDelay, controllers);
             int[][] bufs = { buf };
             int[][] bufs2 = { buf2 };
@@ -296,7 +299,8 @@ Debug.println(m + ": " + instruments[m].getName());
         filterControl[1] = 0;
         filterControl[2] = 0;
 
-        context.lfo.keyDown();
+        Lfo lfo = new Lfo(context);
+        lfo.keyDown();
         Note note = new Note(context, x, 50 + (r.nextInt(12)), 100);
         Note.Controllers controllers = new Note.Controllers(0x2000);
         int[] buf = new int[Note.N];
@@ -306,8 +310,9 @@ Debug.println(m + ": " + instruments[m].getName());
             if (i >= nSamples * (7. / 8.)) {
                 note.keyUp();
             }
-            int lfoValue = context.lfo.getSample();
-            int lfoDelay = context.lfo.getDelay();
+            int lfoValue = lfo.getSample();
+            int lfoDelay = lfo.getDelay();
+            Arrays.fill(buf, 0);
             note.compute(buf, lfoValue, lfoDelay, controllers);
             int[][] bufs = { buf };
             int[][] bufs2 = { buf2 };
@@ -362,7 +367,8 @@ Debug.println(x.length + "\n" + StringUtil.getDump(x));
         filterControl[1] = 0;
         filterControl[2] = 0;
 
-        context.lfo.keyDown();
+        Lfo lfo = new Lfo(context);
+        lfo.keyDown();
         Note note = new Note(context, x, 50 + (r.nextInt(12)), 100);
         Note.Controllers controllers = new Note.Controllers(0x2000);
         int[] buf = new int[Note.N];
@@ -372,8 +378,9 @@ Debug.println(x.length + "\n" + StringUtil.getDump(x));
             if (i >= nSamples * (7. / 8.)) {
                 note.keyUp();
             }
-            int lfoValue = context.lfo.getSample();
-            int lfoDelay = context.lfo.getDelay();
+            int lfoValue = lfo.getSample();
+            int lfoDelay = lfo.getDelay();
+            Arrays.fill(buf, 0);
             note.compute(buf, lfoValue, lfoDelay, controllers);
 //            note.compute(buf, 0, 0, controllers);
             int[][] bufs = { buf };
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.dx7;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.Mixer;
+import javax.sound.sampled.TargetDataLine;
+
+import org.junit.jupiter.api.Test;
+
+import vavi.sound.sampled.dx7.Dx7Mixer;
+import vavi.sound.sampled.dx7.Dx7TargetDataLine;
+import vavi.sound.sampled.dx7.SynthUnitInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Dx7TargetDataLineTest.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (nsano)
+ * @version 0.00 2026/10/17 nsano initial version <br>
+ */
+class Dx7TargetDataLineTest {
+
+    /** what the engine renders itself */
+    static int[] expected(float sampleRate, int frames) {
+        SynthUnit unit = new SynthUnit(sampleRate, 16, Note.N);
+        unit.noteOn(60, 100);
+        int[] samples = new int[frames];
+        unit.getSamples(frames, samples);
+        return samples;
+    }
+
+    @Test
+    void testLine() throws Exception {
+        AudioFormat format = new AudioFormat(48000, 16, 1, true, false);
+        Mixer mixer = AudioSystem.getMixer(Dx7Mixer.info);
+        // never a capture device
+        assertFalse(mixer.isLineSupported(new DataLine.Info(TargetDataLine.class, format)));
+
+        Dx7TargetDataLine line = (Dx7TargetDataLine) AudioSystem.getLine(new DataLine.Info(Dx7TargetDataLine.class, format));
+        line.open(format);
+        try {
+            assertEquals(1, mixer.getTargetLines().length);
+            line.start();
+            line.getSynthUnit().noteOn(60, 100);
+            byte[] b = new byte[1001]; // a frame and a half over
+            int[] expected = expected(48000, 1000);
+            int n = 0;
+            for (int r = 0; r < 2; r++) {
+                int l = line.read(b, r * 500, r == 0 ? 500 : 501);
+                assertEquals(500, l);
+                n += l;
+            }
+            assertEquals(500, line.getFramePosition());
+            ByteBuffer bb = ByteBuffer.wrap(b, 0, n).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < n / 2; i++) {
+                assertEquals((short) expected[i], bb.getShort(), "frame " + i);
+            }
+        } finally {
+            line.close();
+        }
+        assertEquals(0, mixer.getTargetLines().length);
+    }
+
+    @Test
+    void testFormats() throws Exception {
+        int frames = 2000;
+        int[] expected = expected(44100, frames);
+        for (AudioFormat format : new AudioFormat[] {
+            new AudioFormat(44100, 24, 2, true, true),
+            new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, 44100, 32, 2, 8, 44100, false),
+        }) {
+            SynthUnit unit = new SynthUnit(44100, 16, Note.N);
+            unit.noteOn(60, 100);
+            AudioInputStream stream = SynthUnitInputStream.getAudioInputStream(unit, format);
+            byte[] b = new byte[frames * format.getFrameSize()];
+            int n = 0;
+            while (n < b.length) {
+                n += stream.read(b, n, Math.min(777, b.length - n));
+            }
+            ByteBuffer bb = ByteBuffer.wrap(b).order(format.isBigEndian() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+            int peak = 0;
+            for (int i = 0; i < frames; i++) {
+                for (int c = 0; c < 2; c++) {
+                    if (format.getEncoding().equals(AudioFormat.Encoding.PCM_FLOAT)) {
+                        assertEquals((short) expected[i] / 32768f, bb.getFloat(), format + ", frame " + i);
+                    } else {
+                        int value = (bb.get() << 16) | (bb.get() & 0xff) << 8 | bb.get() & 0xff;
+                        assertEquals((short) expected[i] << 8, value, format + ", frame " + i);
+                    }
+                }
+                peak = Math.max(peak, Math.abs(expected[i]));
+            }
+            assertTrue(peak > 0);
+        }
+        assertThrows(IllegalArgumentException.class, () -> new SynthUnitInputStream(null, new AudioFormat(44100, 8, 1, true, false)));
+        SynthUnit unit = new SynthUnit(44100, 16, Note.N);
+        assertThrows(IllegalArgumentException.class, () -> new SynthUnitInputStream(unit, new AudioFormat(48000, 16, 1, true, false)));
+        SynthUnitInputStream stream = new SynthUnitInputStream(unit, new AudioFormat(44100, 16, 2, true, false));
+        assertEquals(0, stream.read(new byte[4], 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> stream.read(new byte[4], 0, 3)); // no whole frame
+    }
+}
@@ -6,6 +6,7 @@
 
 package vavi.sound.dx7;
 
+import java.util.Arrays;
 import java.util.Random;
 
 import org.junit.jupiter.api.Test;
@@ -13,6 +14,7 @@ import org.junit.jupiter.api.Test;
 import vavi.util.Debug;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
 
@@ -40,6 +42,39 @@ Debug.println("Max error: " + maxErr);
         assertEquals(2.5, maxErr, 0.05);
     }
 
+    @Test
+    void test_sin_quality() {
+Debug.println("test_sin_quality ----");
+        int samples = 1 << 20;
+        int[] phases = new int[samples];
+        Random random = new Random(7);
+        for (int i = 0; i < samples; i++) {
+            phases[i] = random.nextInt() & ((1 << 24) - 1);
+        }
+        double[] maxErr = new double[SinQuality.values().length];
+        for (SinQuality quality : SinQuality.values()) {
+            for (int phase : phases) {
+                int y = Sin.sin(phase, quality);
+                double yd = (1 << 24) * Math.sin(phase * (Math.PI / (1 << 23)));
+                maxErr[quality.ordinal()] = Math.max(maxErr[quality.ordinal()], Math.abs(y - yd));
+            }
+            int sum = 0;
+            long best = Long.MAX_VALUE;
+            for (int r = 0; r < 10; r++) {
+                long t = System.nanoTime();
+                for (int phase : phases) {
+                    sum += Sin.sin(phase, quality);
+                }
+                best = Math.min(best, System.nanoTime() - t);
+            }
+Debug.println(String.format("%-6s max error: %8.2f, %5.2f ns/sample (%d)", quality, maxErr[quality.ordinal()], best / (double) samples, sum & 1));
+        }
+        assertTrue(maxErr[SinQuality.TABLE.ordinal()] > maxErr[SinQuality.LOOKUP.ordinal()]);
+        assertTrue(maxErr[SinQuality.LOOKUP.ordinal()] > maxErr[SinQuality.POLY8.ordinal()]);
+        assertTrue(maxErr[SinQuality.POLY8.ordinal()] > maxErr[SinQuality.POLY10.ordinal()]);
+        assertTrue(maxErr[SinQuality.POLY10.ordinal()] <= 1);
+    }
+
     @Test
     void test_tanh_accuracy() {
 Debug.println("test_tanh_accuracy ----");
@@ -109,4 +144,79 @@ Debug.println(worstPhase + " " + worstFreq + " " + worstErr);
 Debug.println("Mean: " + (errsum * 1e-6));
         assertEquals(77.08, errsum * 1e-6, 0.015);
     }
+
+    @Test
+    void test_float_pure_accuracy() {
+Debug.println("test_float_pure_accuracy ----");
+        Random random = new Random();
+        double errsum = 0;
+        double worstErr = 0;
+        for (int i = 0; i < 100000; i++) {
+            int freq = random.nextInt() & 0x7fffff;
+            int phase = random.nextInt() & 0xffffff;
+            int gain = 1 << 24;
+            int[] buf = new int[64];
+            FmOpKernel.computePure(buf, phase, freq, gain, gain, false);
+            float[] bufFloat = new float[64];
+            FmOpKernel.computePure(bufFloat, 0, phase, freq, gain, gain, false, Note.LG_N, SinQuality.LOOKUP);
+            double maxerr = 0;
+            for (int j = 0; j < 64; j++) {
+                double err = Math.abs(buf[j] - bufFloat[j] * (1 << 24));
+                if (err > maxerr)
+                    maxerr = err;
+            }
+            errsum += maxerr;
+            worstErr = Math.max(worstErr, maxerr);
+        }
+Debug.println("Worst: " + worstErr + ", Mean: " + (errsum * 1e-5));
+        // against the fixed point kernel, not the true sine: only rounding of the lookup
+        assertTrue(worstErr < 4, "worst: " + worstErr);
+    }
+
+    @Test
+    void test_float_engine_parity() {
+Debug.println("test_float_engine_parity ----");
+        Random random = new Random(6);
+        Note.Controllers controllers = new Note.Controllers(0x2000);
+        int[] filterControl = { 258847126, 0, 0 };
+        double worstErr = 0;
+        double errsum = 0;
+        int samples = 0;
+        for (int i = 0; i < 32; i++) {
+            byte[] patch = VoicePoolTest.randomPatch(random);
+            int midiNote = 36 + random.nextInt(60);
+            int velocity = 1 + random.nextInt(127);
+            // flat pitch envelope, each note steps its own, the error is of the sample formats alone
+            Arrays.fill(patch, 130, 134, (byte) 50);
+            Context context = Context.getInstance(44100);
+            Note note = new Note(context, patch, midiNote, velocity);
+            ResoFilter filter = new ResoFilter(context);
+            int[] buf = new int[Note.N];
+            int[] buf2 = new int[Note.N];
+            Note noteFloat = new Note(context, patch, midiNote, velocity);
+            ResoFilter filterFloat = new ResoFilter(context);
+            float[] bufFloat = new float[Note.N];
+            for (int block = 0; block < 200; block++) {
+                if (block == 150) {
+                    note.keyUp();
+                    noteFloat.keyUp();
+                }
+                Arrays.fill(buf, 0);
+                note.compute(buf, 0, 0, controllers);
+                filter.process(new int[][] { buf }, filterControl, filterControl, new int[][] { buf2 });
+                Arrays.fill(bufFloat, 0);
+                noteFloat.compute(bufFloat, 0, 0, 0, controllers);
+                filterFloat.process(bufFloat, 0, filterControl, filterControl, bufFloat, 0);
+                for (int j = 0; j < Note.N; j++) {
+                    // in 16 bit lsb as the gervill output
+                    double err = Math.abs(buf2[j] - bufFloat[j] * (1 << 24)) / (1 << 13);
+                    worstErr = Math.max(worstErr, err);
+                    errsum += err;
+                    samples++;
+                }
+            }
+        }
+Debug.println("Worst: " + worstErr + " lsb, Mean: " + (errsum / samples) + " lsb");
+        assertTrue(worstErr < 1, "worst: " + worstErr);
+    }
 }
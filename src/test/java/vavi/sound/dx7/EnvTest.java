@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.dx7;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import vavi.util.Debug;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+/**
+ * EnvTest.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (nsano)
+ * @version 0.00 2026/10/17 nsano initial version <br>
+ */
+class EnvTest {
+
+    static int[] random4(Random random) {
+        int[] a = new int[4];
+        for (int i = 0; i < 4; i++) {
+            a[i] = random.nextInt(100);
+        }
+        return a;
+    }
+
+    @Test
+    void testEnv() {
+        Random random = new Random(8);
+        long skipped = 0;
+        for (int i = 0; i < 2000; i++) {
+            int lgN = 4 + random.nextInt(6);
+            int[] stepped = new int[Env.STRIDE];
+            Env.init(stepped, 0, random4(random), random4(random), random.nextInt(4400), random.nextInt(8), lgN);
+            int[] jumped = stepped.clone();
+            int keyUp = random.nextInt(3000);
+            int left = Env.blocksLeft(stepped, 0);
+            for (int block = 0; block < 6000; ) {
+                // jumps to the next key event at most
+                int blocks = Math.min(1 + random.nextInt(500), (block < keyUp ? keyUp : 6000) - block);
+                for (int j = 0; j < blocks; j++) {
+                    Env.getSample(stepped, 0);
+                    int next = Env.blocksLeft(stepped, 0);
+                    if (left != Integer.MAX_VALUE && left > 1) {
+                        assertEquals(left - 1, next, "env " + i + ", block " + (block + j));
+                    }
+                    left = next;
+                }
+                Env.skip(jumped, 0, blocks);
+                skipped += blocks;
+                block += blocks;
+                assertArrayEquals(stepped, jumped, "env " + i + ", block " + block);
+                if (block == keyUp) {
+                    Env.keyDown(stepped, 0, false);
+                    Env.keyDown(jumped, 0, false);
+                    left = Env.blocksLeft(stepped, 0);
+                }
+            }
+        }
+Debug.println("skipped: " + skipped);
+    }
+
+    @Test
+    void testPitchEnv() {
+        Random random = new Random(9);
+        for (int i = 0; i < 2000; i++) {
+            int n = 16 << random.nextInt(6);
+            int unit = PitchEnv.unit(44100, n);
+            int[] stepped = new int[PitchEnv.STRIDE];
+            PitchEnv.set(stepped, 0, unit, random4(random), random4(random));
+            int[] jumped = stepped.clone();
+            int keyUp = random.nextInt(3000);
+            int left = PitchEnv.blocksLeft(stepped, 0);
+            for (int block = 0; block < 6000; ) {
+                int blocks = Math.min(1 + random.nextInt(500), (block < keyUp ? keyUp : 6000) - block);
+                for (int j = 0; j < blocks; j++) {
+                    PitchEnv.getSample(stepped, 0);
+                    int next = PitchEnv.blocksLeft(stepped, 0);
+                    if (left != Integer.MAX_VALUE && left > 1) {
+                        assertEquals(left - 1, next, "env " + i + ", block " + (block + j));
+                    }
+                    left = next;
+                }
+                PitchEnv.skip(jumped, 0, blocks);
+                block += blocks;
+                assertArrayEquals(stepped, jumped, "env " + i + ", block " + block);
+                if (block == keyUp) {
+                    PitchEnv.keyDown(stepped, 0, false);
+                    PitchEnv.keyDown(jumped, 0, false);
+                    left = PitchEnv.blocksLeft(stepped, 0);
+                }
+            }
+        }
+    }
+}
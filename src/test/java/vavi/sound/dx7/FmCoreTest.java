@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.dx7;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import vavi.util.Debug;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * FmCoreTest.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (nsano)
+ * @version 0.00 2026/10/17 nsano initial version <br>
+ */
+class FmCoreTest {
+
+    static FmCore.FmOpParams[] newParams() {
+        FmCore.FmOpParams[] params = new FmCore.FmOpParams[6];
+        for (int op = 0; op < 6; op++) {
+            params[op] = new FmCore.FmOpParams();
+        }
+        return params;
+    }
+
+    /** sets the same random block parameters to both, {@code quiet} forces some operators under the threshold */
+    static void randomize(Random random, FmCore.FmOpParams[] a, FmCore.FmOpParams[] b, boolean quiet) {
+        for (int op = 0; op < 6; op++) {
+            int gain = quiet && random.nextInt(3) == 0 ? random.nextInt(1120) : 1120 + random.nextInt(1 << 24);
+            int freq = random.nextInt(1 << 20);
+            a[op].gain[0] = a[op].gain[1];
+            a[op].gain[1] = gain;
+            a[op].freq = freq;
+            b[op].gain[0] = b[op].gain[1];
+            b[op].gain[1] = gain;
+            b[op].freq = freq;
+        }
+    }
+
+    @Test
+    void testSpecializedKernels() {
+        Random random = new Random(1);
+        for (int algorithm = 0; algorithm < 32; algorithm++) {
+            for (int feedback = 0; feedback < 8; feedback++) {
+                int fbShift = feedback != 0 ? 8 - feedback : 16;
+                for (boolean quiet : new boolean[] { false, true }) {
+                    FmCore generic = new FmCore(algorithm);
+                    FmCore specialized = new FmCore(algorithm);
+                    FmCore.FmOpParams[] genericParams = newParams();
+                    FmCore.FmOpParams[] specializedParams = newParams();
+                    int[] genericFb = new int[2];
+                    int[] specializedFb = new int[2];
+                    int[] expected = new int[Note.N];
+                    int[] actual = new int[Note.N];
+                    for (int block = 0; block < 16; block++) {
+                        randomize(random, genericParams, specializedParams, quiet);
+                        generic.compute(expected, genericParams, algorithm, genericFb, fbShift);
+                        specialized.compute(actual, specializedParams, specializedFb, fbShift);
+                        assertArrayEquals(expected, actual, "algorithm " + (algorithm + 1) + ", block " + block);
+                        assertArrayEquals(genericFb, specializedFb);
+                        for (int op = 0; op < 6; op++) {
+                            assertEquals(genericParams[op].phase, specializedParams[op].phase);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void testBusRouting() {
+        Random random = new Random(2);
+        FmCore.FmOpParams[] params = newParams();
+        FmCore.FmOpParams[] dummy = newParams();
+        randomize(random, params, dummy, false);
+        randomize(random, params, dummy, false);
+
+        // algorithm 16: op1 is modulated by op2, op3 <- op4 and op5 <- op6 with feedback
+        int fbShift = 3;
+        int[] bus1 = new int[Note.N];
+        int[] bus2 = new int[Note.N];
+        int[] fbBuf = new int[2];
+        int[] expected = new int[Note.N];
+        FmCore.FmOpParams[] p = params;
+        FmOpKernel.computeFb(bus1, p[0].phase, p[0].freq, p[0].gain[0], p[0].gain[1], fbBuf, fbShift, false);
+        FmOpKernel.compute(bus1, bus1, p[1].phase, p[1].freq, p[1].gain[0], p[1].gain[1], false);
+        FmOpKernel.computePure(bus2, p[2].phase, p[2].freq, p[2].gain[0], p[2].gain[1], false);
+        FmOpKernel.compute(bus1, bus2, p[3].phase, p[3].freq, p[3].gain[0], p[3].gain[1], true);
+        FmOpKernel.computePure(bus1, p[4].phase, p[4].freq, p[4].gain[0], p[4].gain[1], true);
+        FmOpKernel.compute(expected, bus1, p[5].phase, p[5].freq, p[5].gain[0], p[5].gain[1], true);
+
+        int[] actual = new int[Note.N];
+        new FmCore(15).compute(actual, params, new int[2], fbShift);
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    void testCull() {
+        Random random = new Random(3);
+        int culled = 0;
+        for (int algorithm = 0; algorithm < 32; algorithm++) {
+            int carriers = FmCore.carriers(algorithm);
+            for (int audible = 0; audible < 64; audible++) {
+                for (boolean feedback : new boolean[] { false, true }) {
+                    int live = FmCore.cull(algorithm, audible, feedback);
+                    assertEquals(live, live & audible);
+                    assertEquals(audible & carriers, live & carriers);
+                    culled += Integer.bitCount(audible & ~live);
+                }
+            }
+            FmCore generic = new FmCore(algorithm);
+            FmCore planned = new FmCore(algorithm);
+            FmCore.FmOpParams[] genericParams = newParams();
+            FmCore.FmOpParams[] plannedParams = newParams();
+            int[] genericFb = new int[2];
+            int[] plannedFb = new int[2];
+            int[] expected = new int[Note.N];
+            int[] actual = new int[Note.N];
+            for (int block = 0; block < 64; block++) {
+                // silent carriers every other block
+                randomize(random, genericParams, plannedParams, true);
+                if (block % 2 == 0) {
+                    for (int op = 0; op < 6; op++) {
+                        if ((carriers & (1 << op)) != 0 && random.nextBoolean()) {
+                            genericParams[op].gain[1] = plannedParams[op].gain[1] = 0;
+                        }
+                    }
+                }
+                generic.compute(expected, genericParams, algorithm, genericFb, 3);
+                planned.compute(actual, plannedParams, plannedFb, 3);
+                assertArrayEquals(expected, actual, "algorithm " + (algorithm + 1) + ", block " + block);
+                assertArrayEquals(genericFb, plannedFb);
+            }
+        }
+Debug.println("culled operators: " + culled);
+        assertTrue(culled > 0);
+    }
+}
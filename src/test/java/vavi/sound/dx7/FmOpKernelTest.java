@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.dx7;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import vavi.util.Debug;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+/**
+ * FmOpKernelTest.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (nsano)
+ * @version 0.00 2026/10/17 nsano initial version <br>
+ */
+class FmOpKernelTest {
+
+    /** compares a lane group against the single voice kernels */
+    static void compare(FmOpKernel.Lanes lanes, int lgN, SinQuality quality, int n, Random random) {
+        int blockSize = 1 << lgN;
+        int[] phase = new int[n];
+        int[] freq = new int[n];
+        int[] gain1 = new int[n];
+        int[] gain2 = new int[n];
+        int[] fbShift = new int[n];
+        int[] fbBuf = new int[n * 2];
+        int[] input = new int[blockSize * n];
+        int[] output = new int[blockSize * n];
+        for (int v = 0; v < n; v++) {
+            phase[v] = random.nextInt();
+            freq[v] = random.nextInt(1 << 22);
+            gain1[v] = random.nextInt(1 << 26);
+            gain2[v] = random.nextInt(1 << 26);
+            fbShift[v] = 1 + random.nextInt(7);
+            fbBuf[v] = random.nextInt(1 << 24) - (1 << 23);
+            fbBuf[n + v] = random.nextInt(1 << 24) - (1 << 23);
+        }
+        for (int i = 0; i < input.length; i++) {
+            input[i] = random.nextInt(1 << 26) - (1 << 25);
+            output[i] = random.nextInt(1 << 24);
+        }
+
+        for (int kind = 0; kind < 3; kind++) {
+            for (boolean add : new boolean[] { false, true }) {
+                int[] actual = output.clone();
+                int[] actualFb = fbBuf.clone();
+                switch (kind) {
+                case 0 -> lanes.compute(actual, input, phase, freq, gain1, gain2, n, add);
+                case 1 -> lanes.computePure(actual, phase, freq, gain1, gain2, n, add);
+                case 2 -> lanes.computeFb(actual, phase, freq, gain1, gain2, actualFb, fbShift, n, add);
+                }
+                for (int v = 0; v < n; v++) {
+                    int[] expected = new int[blockSize];
+                    int[] in = new int[blockSize];
+                    for (int i = 0; i < blockSize; i++) {
+                        expected[i] = output[i * n + v];
+                        in[i] = input[i * n + v];
+                    }
+                    int[] fb = { fbBuf[v], fbBuf[n + v] };
+                    switch (kind) {
+                    case 0 -> FmOpKernel.compute(expected, in, phase[v], freq[v], gain1[v], gain2[v], add, lgN, quality);
+                    case 1 -> FmOpKernel.computePure(expected, phase[v], freq[v], gain1[v], gain2[v], add, lgN, quality);
+                    case 2 -> FmOpKernel.computeFb(expected, phase[v], freq[v], gain1[v], gain2[v], fb, fbShift[v], add, lgN, quality);
+                    }
+                    for (int i = 0; i < blockSize; i++) {
+                        assertEquals(expected[i], actual[i * n + v], "kind " + kind + ", voice " + v + ", sample " + i);
+                    }
+                    if (kind == 2) {
+                        assertEquals(fb[0], actualFb[v]);
+                        assertEquals(fb[1], actualFb[n + v]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void testLanes() {
+        FmOpKernel.Lanes lanes = FmOpKernel.newLanes(Note.LG_N, SinQuality.LOOKUP);
+Debug.println("lanes: " + lanes.getClass().getSimpleName() + ", width: " + lanes.width());
+        Random random = new Random(3);
+        for (int i = 0; i < 100; i++) {
+            compare(lanes, Note.LG_N, SinQuality.LOOKUP, lanes.width(), random);
+            compare(lanes, Note.LG_N, SinQuality.LOOKUP, 3, random);
+            compare(new FmOpKernel.ScalarLanes(Note.LG_N, SinQuality.LOOKUP), Note.LG_N, SinQuality.LOOKUP, 5, random);
+        }
+        // block sizes 16 ~ 512
+        for (int lgN = 4; lgN <= 9; lgN++) {
+            FmOpKernel.Lanes l = FmOpKernel.newLanes(lgN, SinQuality.LOOKUP);
+            compare(l, lgN, SinQuality.LOOKUP, l.width(), random);
+            compare(l, lgN, SinQuality.LOOKUP, 3, random);
+        }
+        for (SinQuality quality : SinQuality.values()) {
+            FmOpKernel.Lanes l = FmOpKernel.newLanes(Note.LG_N, quality);
+            for (int i = 0; i < 10; i++) {
+                compare(l, Note.LG_N, quality, l.width(), random);
+            }
+        }
+    }
+}
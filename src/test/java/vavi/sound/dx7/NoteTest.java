@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.dx7;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import vavi.util.Debug;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+/**
+ * NoteTest.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (nsano)
+ * @version 0.00 2026/10/17 nsano initial version <br>
+ */
+class NoteTest {
+
+    private static final com.sun.management.ThreadMXBean threadMXBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    @Test
+    void testReset() {
+        Random random = new Random(13);
+        Note.Controllers controllers = new Note.Controllers(0x2000);
+        Context context = Context.getInstance(44100);
+        Note recycled = new Note(context, VoicePoolTest.randomPatch(random), 60, 100);
+        int[] expected = new int[Note.N];
+        int[] actual = new int[Note.N];
+        for (int i = 0; i < 32; i++) {
+            CompiledPatch patch = new CompiledPatch(VoicePoolTest.randomPatch(random));
+            int midiNote = 36 + random.nextInt(60);
+            int velocity = 1 + random.nextInt(127);
+            // left in the middle of a note
+            for (int block = 0; block < random.nextInt(50); block++) {
+                recycled.compute(actual, 1 << 23, 0, controllers);
+            }
+            recycled.reset(patch, midiNote, velocity);
+            Note fresh = new Note(context, patch, midiNote, velocity);
+            for (int block = 0; block < 100; block++) {
+                Arrays.fill(expected, 0);
+                Arrays.fill(actual, 0);
+                if (block == 60) {
+                    fresh.keyUp();
+                    recycled.keyUp();
+                }
+                fresh.compute(expected, 1 << 23, 0, controllers);
+                recycled.compute(actual, 1 << 23, 0, controllers);
+                assertArrayEquals(expected, actual, "patch " + i + ", block " + block);
+            }
+        }
+    }
+
+    /** a note sounds the same with others rendered in between */
+    @Test
+    void testIndependent() {
+        Random random = new Random(16);
+        Note.Controllers controllers = new Note.Controllers(0x2000);
+        Context context = Context.getInstance(44100);
+        for (int i = 0; i < 16; i++) {
+            CompiledPatch patch = new CompiledPatch(VoicePoolTest.randomPatch(random));
+            CompiledPatch other = new CompiledPatch(VoicePoolTest.randomPatch(random));
+            Note alone = new Note(context, patch, 60, 100);
+            Note note = new Note(context, patch, 60, 100);
+            Note another = new Note(context, other, 72, 100);
+            int[] expected = new int[Note.N];
+            int[] actual = new int[Note.N];
+            int[] discarded = new int[Note.N];
+            for (int block = 0; block < 200; block++) {
+                if (block == 100) {
+                    alone.keyUp();
+                    note.keyUp();
+                }
+                if (block == 50) {
+                    another.keyUp();
+                }
+                Arrays.fill(expected, 0);
+                Arrays.fill(actual, 0);
+                alone.compute(expected, 1 << 23, 0, controllers);
+                another.compute(discarded, 1 << 23, 0, controllers);
+                note.compute(actual, 1 << 23, 0, controllers);
+                another.compute(discarded, 1 << 23, 0, controllers);
+                assertArrayEquals(expected, actual, "patch " + i + ", block " + block);
+            }
+        }
+    }
+
+    @Test
+    void testNoAllocation() {
+        Random random = new Random(14);
+        Note.Controllers controllers = new Note.Controllers(0x2000);
+        Context context = Context.getInstance(44100);
+        CompiledPatch[] patches = new CompiledPatch[8];
+        for (int i = 0; i < patches.length; i++) {
+            patches[i] = new CompiledPatch(VoicePoolTest.randomPatch(random));
+        }
+        Note note = new Note(context, patches[0], 60, 100);
+        VoicePool pool = new VoicePool(context, 16);
+        int[] buf = new int[Note.N];
+        long[] mix = new long[Note.N];
+        int[] voices = new int[16];
+        int[] keys = new int[256];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = 36 + random.nextInt(60);
+        }
+
+        long allocated = 0;
+        for (int round = 0; round < 2; round++) { // warm up, then measure
+            long before = threadMXBean.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < 20000; i++) {
+                CompiledPatch patch = patches[i & 7];
+                int key = keys[i & 255];
+                note.reset(patch, key, 100);
+                note.compute(buf, 1 << 23, 0, controllers);
+                note.keyUp();
+                note.compute(buf, 1 << 23, 0, controllers);
+
+                int v = i & 15;
+                if (pool.isLive(voices[v])) {
+                    pool.free(voices[v]);
+                }
+                voices[v] = pool.noteOn(patch, key, 100);
+                pool.compute(mix, 1 << 23, 0, controllers);
+                pool.keyUp(voices[v]);
+            }
+            allocated = threadMXBean.getCurrentThreadAllocatedBytes() - before;
+        }
+Debug.println("allocated: " + allocated + " bytes for 20000 note on/off");
+        assertEquals(0, allocated);
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.dx7;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+import javax.sound.sampled.AudioInputStream;
+
+import org.junit.jupiter.api.Test;
+
+import vavi.sound.midi.dx7.OfflineRenderer;
+import vavi.util.Debug;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * OfflineRendererTest.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (nsano)
+ * @version 0.00 2026/10/17 nsano initial version <br>
+ */
+class OfflineRendererTest {
+
+    static byte[][] randomBank(long seed) {
+        Random random = new Random(seed);
+        byte[][] programs = new byte[128][];
+        for (int p = 0; p < programs.length; p++) {
+            programs[p] = VoicePoolTest.randomPatch(random);
+        }
+        return programs;
+    }
+
+    @Test
+    void testRender() throws Exception {
+        OfflineRenderer renderer = new OfflineRenderer(44100, randomBank(17), null);
+        Sequence sequence = MidiSystem.getSequence(OfflineRendererTest.class.getResourceAsStream("/test.mid"));
+
+        long start = System.nanoTime();
+        byte[] pcm = renderer.render(sequence).readAllBytes();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        double seconds = pcm.length / 2 / 44100.0;
+Debug.println(String.format("%.1f s in %.2f s, x%.1f realtime, sequence %.1f s", seconds, elapsed, seconds / elapsed, sequence.getMicrosecondLength() / 1e6));
+        assertTrue(seconds >= sequence.getMicrosecondLength() / 1e6);
+        assertTrue(seconds <= sequence.getMicrosecondLength() / 1e6 + OfflineRenderer.MAX_TAIL + 1);
+        assertTrue(seconds / elapsed > 1);
+        int peak = 0;
+        for (int i = 0; i < pcm.length; i += 2) {
+            peak = Math.max(peak, Math.abs((short) (pcm[i] & 0xff | pcm[i + 1] << 8)));
+        }
+        assertTrue(peak > 0);
+
+        // same input, same output
+        assertArrayEquals(pcm, renderer.render(sequence).readAllBytes());
+    }
+
+    /** loud from the first sample on, all carriers */
+    static byte[][] loudBank() {
+        byte[] patch = new byte[156];
+        for (int op = 0; op < 6; op++) {
+            Arrays.fill(patch, op * 21, op * 21 + 8, (byte) 99); // rates and levels
+            patch[op * 21 + 16] = 99; // output level
+            patch[op * 21 + 18] = 1; // coarse
+        }
+        patch[134] = 31; // algorithm 32
+        patch[155] = 0x3f; // operators on
+        return new byte[][] { patch };
+    }
+
+    static int first(short[] samples) {
+        int first = 0;
+        while (first < samples.length && samples[first] == 0) {
+            first++;
+        }
+        return first;
+    }
+
+    /** a note is heard at its very sample by the tempo map */
+    @Test
+    void testTiming() throws Exception {
+        Sequence sequence = new Sequence(Sequence.PPQ, 480);
+        Track track = sequence.createTrack();
+        // 120 bpm, a quarter at 0.5 s, then 240 bpm
+        track.add(new MidiEvent(new MetaMessage(0x51, new byte[] { 0x03, (byte) 0xd0, (byte) 0x90 }, 3), 480));
+        track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, 2, 60, 100), 960));
+        track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_OFF, 2, 60, 0), 1440));
+        Sequence reference = new Sequence(Sequence.PPQ, 480);
+        reference.createTrack().add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, 2, 60, 100), 0));
+
+        for (int blockSize : new int[] { 16, 64 }) {
+            OfflineRenderer renderer = new OfflineRenderer(44100, loudBank(), null);
+            renderer.setBlockSize(blockSize);
+            // the first sample of a note, of sin(0), is silent
+            int attack = first(samples(renderer.render(reference)));
+            int first = first(samples(renderer.render(sequence)));
+Debug.println("block size: " + blockSize + ", first: " + first + ", attack: " + attack);
+            int expected = 44100 * 3 / 4; // 0.5 s + 0.25 s
+            assertEquals(expected + attack, first, "block size " + blockSize);
+        }
+    }
+
+    /** phrases of 2 s with rests of 6 s */
+    static Sequence phrases() throws Exception {
+        Random random = new Random(19);
+        Sequence sequence = new Sequence(Sequence.PPQ, 480);
+        Track track = sequence.createTrack();
+        // 120 bpm, phrases of 2 s with rests of 6 s
+        for (int phrase = 0; phrase < 8; phrase++) {
+            long start = phrase * 8 * 960L;
+            int channel = phrase % 4;
+            track.add(new MidiEvent(new ShortMessage(ShortMessage.PROGRAM_CHANGE, channel, random.nextInt(128), 0), start));
+            for (long tick = start; tick < start + 2 * 960; tick += 240) {
+                int key = 36 + random.nextInt(60);
+                track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, channel, key, 1 + random.nextInt(127)), tick));
+                track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_OFF, channel, key, 0), tick + 120));
+            }
+        }
+        return sequence;
+    }
+
+    static OfflineRenderer phraseRenderer() {
+        byte[][] programs = randomBank(19);
+        for (byte[] program : programs) { // released to silence in a rest
+            for (int op = 0; op < 6; op++) {
+                program[op * 21 + 3] = 60; // R4
+                program[op * 21 + 7] = 0; // L4
+            }
+        }
+        return new OfflineRenderer(44100, programs, null);
+    }
+
+    /** cut at rests, the same as rendered through */
+    @Test
+    void testSegments() throws Exception {
+        Sequence sequence = phrases();
+        OfflineRenderer renderer = phraseRenderer();
+        byte[] expected = renderer.render(sequence).readAllBytes();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            long start = System.nanoTime();
+            byte[] actual = renderer.render(sequence, executor, 4).readAllBytes();
+Debug.println(String.format("joins: %d, rejoins: %d, %.2f s", renderer.getJoins(), renderer.getRejoins(), (System.nanoTime() - start) / 1e9));
+            assertArrayEquals(expected, actual);
+            assertTrue(renderer.getJoins() > 0);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /** segments are rendered as far ahead of the reader as there are threads, one more */
+    @Test
+    void testAhead() throws Exception {
+        Sequence sequence = phrases();
+        OfflineRenderer renderer = phraseRenderer();
+        byte[] expected = renderer.render(sequence).readAllBytes();
+
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(1);
+        try {
+            AudioInputStream stream = renderer.render(sequence, executor, 8);
+            byte[] first = stream.readNBytes(2);
+Debug.println("segments submitted: " + executor.getTaskCount());
+            assertEquals(3, executor.getTaskCount()); // the one read, the next two
+            byte[] actual = stream.readAllBytes();
+            assertArrayEquals(expected, ByteBuffer.allocate(first.length + actual.length).put(first).put(actual).array());
+            assertTrue(executor.getTaskCount() > 3);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    static short[] samples(AudioInputStream stream) throws IOException {
+        byte[] pcm = stream.readAllBytes();
+        short[] samples = new short[pcm.length / 2];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) (pcm[i * 2] & 0xff | pcm[i * 2 + 1] << 8);
+        }
+        return Arrays.copyOf(samples, samples.length);
+    }
+}
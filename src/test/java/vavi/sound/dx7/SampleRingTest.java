@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.dx7;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import vavi.util.Debug;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+/**
+ * SampleRingTest.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (nsano)
+ * @version 0.00 2026/10/17 nsano initial version <br>
+ */
+class SampleRingTest {
+
+    @Test
+    void testWrap() {
+        SampleRing ring = new SampleRing(100);
+        assertEquals(128, ring.capacity());
+        int[] block = new int[48];
+        short[] out = new short[40];
+        int written = 0;
+        int read = 0;
+        for (int r = 0; r < 100; r++) {
+            for (int i = 0; i < block.length; i++) {
+                block[i] = written + i;
+            }
+            int n = ring.write(block, 0, block.length);
+            assertEquals(Math.min(block.length, 128 - (written - read)), n);
+            written += n;
+            assertEquals(written - read, ring.size());
+            assertEquals(128 - ring.size(), ring.remaining());
+            int m = ring.read(out, 0, out.length);
+            for (int i = 0; i < m; i++) {
+                assertEquals((short) (read + i), out[i]);
+            }
+            read += m;
+        }
+        // as 16 bit
+        ring.write(new int[] { 0x18000, -1 }, 0, 2);
+        ring.read(new short[128], 0, ring.size() - 2);
+        ByteBuffer bytes = ByteBuffer.allocate(5).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(2, ring.read(bytes));
+        assertEquals((short) 0x8000, bytes.getShort(0));
+        assertEquals(-1, bytes.getShort(2));
+
+        assertEquals(0, ring.getUnderruns());
+        assertEquals(0, ring.read(out, 0, 1));
+        assertEquals(1, ring.getUnderruns());
+    }
+
+    /** in order and whole, a producer and a consumer at once */
+    @Test
+    void testThreads() throws Exception {
+        SampleRing ring = new SampleRing(1024);
+        int total = 200_000;
+        Thread producer = new Thread(() -> {
+            int[] block = new int[64];
+            for (int s = 0; s < total; ) {
+                for (int i = 0; i < block.length; i++) {
+                    block[i] = s + i;
+                }
+                int n = ring.write(block, 0, Math.min(block.length, total - s));
+                if (n < block.length) { // the rest again
+                    Thread.onSpinWait();
+                }
+                s += n;
+            }
+        });
+        producer.start();
+        Random random = new Random(20);
+        float[] out = new float[300];
+        int max = 0;
+        for (int s = 0; s < total; ) {
+            max = Math.max(max, ring.size());
+            int n = ring.read(out, 0, 1 + random.nextInt(out.length));
+            for (int i = 0; i < n; i++) {
+                assertEquals((short) (s + i) / 32768f, out[i], "sample " + (s + i));
+            }
+            s += n;
+        }
+        producer.join();
+Debug.println("occupancy max: " + max);
+        assertEquals(0, ring.size());
+    }
+}
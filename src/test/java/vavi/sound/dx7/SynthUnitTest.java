@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.dx7;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import vavi.util.Debug;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * SynthUnitTest.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (nsano)
+ * @version 0.00 2026/10/17 nsano initial version <br>
+ */
+class SynthUnitTest {
+
+    private static final com.sun.management.ThreadMXBean threadMXBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /** midi events in, pcm out, nothing allocated in steady state */
+    @Test
+    void testNoAllocation() {
+        SynthUnit unit = new SynthUnit(44100, new SampleRing(8192));
+        unit.close(); // no scheduled process(), the test pulls samples itself
+        Random random = new Random(15);
+        int[] keys = new int[256];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = 36 + random.nextInt(60);
+        }
+        // not a multiple of the block size, the extra buffer is used too
+        int[] buffer = new int[100];
+
+        long allocated = 0;
+        long peak = 0;
+        for (int round = 0; round < 2; round++) { // warm up, then measure
+            long before = threadMXBean.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < 20000; i++) {
+                int key = keys[i & 255];
+                unit.noteOn(key, 100);
+                unit.getSamples(buffer.length, buffer);
+                if ((i & 7) == 0) {
+                    unit.controlChange(1, i & 127);
+                    unit.pitchBend(i & 127, 64);
+                    unit.controlChange(64, (i & 8) != 0 ? 127 : 0);
+                }
+                unit.noteOff(key);
+                unit.getSamples(buffer.length, buffer);
+                for (int sample : buffer) {
+                    peak = Math.max(peak, Math.abs(sample));
+                }
+            }
+            allocated = threadMXBean.getCurrentThreadAllocatedBytes() - before;
+        }
+Debug.println("allocated: " + allocated + " bytes for 20000 note on/off, peak: " + peak);
+        assertTrue(peak > 0);
+        assertEquals(0, allocated);
+    }
+
+    /** the ring is filled up to its capacity */
+    @Test
+    void testRing() {
+        SampleRing ring = new SampleRing(4096);
+        SynthUnit unit = new SynthUnit(44100, ring);
+        unit.close(); // no scheduled process(), the test drives it
+        unit.setWatermark(ring.capacity());
+        unit.noteOn(60, 100);
+        unit.process();
+        int size = ring.size();
+Debug.println("ring: " + size);
+        assertEquals(ring.capacity(), size);
+        unit.process(); // full
+        assertEquals(ring.capacity(), unit.getPosition());
+        short[] samples = new short[size];
+        assertEquals(size, ring.read(samples, 0, size));
+        int peak = 0;
+        for (short sample : samples) {
+            peak = Math.max(peak, Math.abs(sample));
+        }
+        assertTrue(peak > 0);
+    }
+
+    /** rendered as the reader takes, at any sample rate */
+    @Test
+    void testWatermark() {
+        SampleRing ring = new SampleRing(8192);
+        SynthUnit unit = new SynthUnit(48000, ring);
+        unit.close(); // no scheduled process(), the test drives it
+        assertEquals(ring.capacity() / 2, unit.getWatermark());
+        unit.setWatermark(1000);
+        unit.noteOn(60, 100);
+        unit.process();
+        assertEquals(1000, ring.size());
+        assertEquals(1000, unit.getPosition());
+        unit.process(); // at the watermark
+        assertEquals(1000, unit.getPosition());
+        short[] samples = new short[300];
+        assertEquals(300, ring.read(samples, 0, samples.length));
+        unit.process();
+        assertEquals(1000, ring.size());
+        assertEquals(1300, unit.getPosition());
+        assertEquals(0, ring.getUnderruns());
+    }
+
+    /** applied at the nearest block, the same as sent there */
+    @Test
+    void testSchedule() {
+        int n = Note.N;
+        SynthUnit scheduled = new SynthUnit(44100, 16, n);
+        scheduled.schedule(n * 16, 0x91, 60, 100);
+        scheduled.schedule(n * 16 + n / 2 - 1, 0xe1, 0, 127); // still the block at 16
+        scheduled.schedule(3000, 0x81, 60, 0);
+        int[] actual = new int[4000];
+        scheduled.getSamples(actual.length, actual);
+
+        SynthUnit sent = new SynthUnit(44100, 16, n);
+        int[] expected = new int[4000];
+        int[] buffer = new int[4000];
+        int position = 0;
+        for (int[] event : new int[][] { { n * 16, 0x91, 60, 100 }, { n * 16, 0xe1, 0, 127 }, { n * 47, 0x81, 60, 0 } }) {
+            sent.getSamples(event[0] - position, buffer);
+            System.arraycopy(buffer, 0, expected, position, event[0] - position);
+            position = event[0];
+            switch (event[1] & 0xf0) {
+            case 0x90 -> sent.noteOn(event[1] & 0xf, event[2], event[3]);
+            case 0x80 -> sent.noteOff(event[1] & 0xf, event[2]);
+            case 0xe0 -> sent.pitchBend(event[1] & 0xf, event[2], event[3]);
+            }
+        }
+        sent.getSamples(expected.length - position, buffer);
+        System.arraycopy(buffer, 0, expected, position, expected.length - position);
+        assertArrayEquals(expected, actual);
+    }
+
+    /** a note on sounds from its sample, not from a block */
+    @Test
+    void testSampleAccurate() {
+        SynthUnit sent = new SynthUnit(44100, 16, Note.N);
+        sent.noteOn(60, 100);
+        int[] expected = new int[2000];
+        sent.getSamples(expected.length, expected);
+        int first = 0;
+        while (expected[first] == 0) {
+            first++;
+        }
+        for (int k : new int[] { 1, Note.N / 2 - 1, Note.N / 2, Note.N - 1, Note.N * 16 + 37 }) {
+            SynthUnit scheduled = new SynthUnit(44100, 16, Note.N);
+            scheduled.schedule(k, 0x90, 60, 100);
+            int[] actual = new int[k + expected.length];
+            scheduled.getSamples(actual.length, actual);
+            int start = 0;
+            while (actual[start] == 0) {
+                start++;
+            }
+Debug.println("at " + k + ": " + start);
+            // the first sample of a note, of sin(0), is silent
+            assertEquals(k + first, start);
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(expected[i], actual[k + i], "at " + k + ", sample " + i);
+            }
+        }
+    }
+
+    /** a controller storm on a block is applied once */
+    @Test
+    void testCoalesce() {
+        SynthUnit storm = new SynthUnit(44100, 16, Note.N);
+        storm.noteOn(60, 100);
+        for (int i = 0; i < 100; i++) {
+            storm.schedule(100, 0xb0, 1, i);
+            storm.schedule(100, 0xe0, i, 64);
+        }
+        storm.schedule(100, 0xb0, 64, 127);
+        storm.schedule(100, 0xb0, 64, 0); // the damper is not coalesced
+        int[] actual = new int[2000];
+        storm.getSamples(actual.length, actual);
+Debug.println("coalesced: " + storm.getCoalesced());
+        assertEquals(198, storm.getCoalesced());
+
+        SynthUnit last = new SynthUnit(44100, 16, Note.N);
+        last.noteOn(60, 100);
+        last.schedule(100, 0xb0, 1, 99);
+        last.schedule(100, 0xe0, 99, 64);
+        int[] expected = new int[2000];
+        last.getSamples(expected.length, expected);
+        assertArrayEquals(expected, actual);
+        assertEquals(0, last.getCoalesced());
+    }
+
+    /** sent from threads at once while rendering */
+    @Test
+    void testSend() throws Exception {
+        SynthUnit unit = new SynthUnit(44100, 16, Note.N);
+        int[] buffer = new int[Note.N];
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int channel = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    int key = 36 + i % 4;
+                    while (!unit.send(0x90 | channel, key, 100)) {
+                        Thread.yield();
+                    }
+                    while (!unit.send(0xb0 | channel, 1, i & 127)) {
+                        Thread.yield();
+                    }
+                    if (i < 10000 - 4) {
+                        while (!unit.send(0x80 | channel, key, 0)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        int maxDepth = 0;
+        while (Arrays.stream(threads).anyMatch(Thread::isAlive) || unit.getQueueDepth() > 0) {
+            maxDepth = Math.max(maxDepth, unit.getQueueDepth());
+            unit.getSamples(buffer.length, buffer);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        unit.getSamples(buffer.length, buffer);
+Debug.println("queue depth max: " + maxDepth + ", coalesced: " + unit.getCoalesced());
+        // the last 4 keys of each channel held
+        assertEquals(16, unit.getActiveVoices());
+    }
+
+    /** what is sent to a channel is of its part alone */
+    @Test
+    void testParts() {
+        int[][] outputs = new int[3][];
+        for (int t = 0; t < outputs.length; t++) {
+            SynthUnit unit = new SynthUnit(44100, new SampleRing(8192));
+            unit.close();
+            unit.noteOn(0, 60, 100);
+            unit.noteOn(1, 64, 100);
+            unit.controlChange(1, 64, 127); // sustained on 1 only
+            unit.noteOff(0, 64); // not the one on 1
+            unit.noteOff(1, 64);
+            if (t == 1) {
+                unit.pitchBend(2, 0, 127);
+                unit.controlChange(2, 1, 0);
+            } else if (t == 2) {
+                unit.pitchBend(1, 0, 127);
+            }
+            outputs[t] = new int[44100];
+            unit.getSamples(outputs[t].length, outputs[t]);
+            assertEquals(2, unit.getActiveVoices());
+        }
+        assertArrayEquals(outputs[0], outputs[1]);
+        assertFalse(Arrays.equals(outputs[0], outputs[2]));
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.dx7;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import vavi.util.Debug;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * VoicePoolTest.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (nsano)
+ * @version 0.00 2026/10/17 nsano initial version <br>
+ */
+class VoicePoolTest {
+
+    /** a random but sane unpacked patch */
+    static byte[] randomPatch(Random random) {
+        byte[] patch = new byte[156];
+        for (int op = 0; op < 6; op++) {
+            int off = op * 21;
+            for (int i = 0; i < 11; i++) {
+                patch[off + i] = (byte) random.nextInt(100);
+            }
+            patch[off + 11] = (byte) random.nextInt(4);
+            patch[off + 12] = (byte) random.nextInt(4);
+            patch[off + 13] = (byte) random.nextInt(8);
+            patch[off + 14] = (byte) random.nextInt(4);
+            patch[off + 15] = (byte) random.nextInt(8);
+            patch[off + 16] = (byte) (random.nextInt(3) == 0 ? 0 : random.nextInt(100));
+            patch[off + 17] = (byte) (random.nextInt(8) == 0 ? 1 : 0);
+            patch[off + 18] = (byte) random.nextInt(32);
+            patch[off + 19] = (byte) random.nextInt(100);
+            patch[off + 20] = (byte) random.nextInt(15);
+        }
+        for (int i = 126; i < 134; i++) {
+            patch[i] = (byte) random.nextInt(100);
+        }
+        patch[134] = (byte) random.nextInt(32);
+        patch[135] = (byte) random.nextInt(8);
+        patch[136] = 1;
+        for (int i = 137; i < 141; i++) {
+            patch[i] = (byte) random.nextInt(100);
+        }
+        patch[141] = (byte) random.nextInt(2);
+        patch[142] = (byte) random.nextInt(6);
+        patch[143] = (byte) random.nextInt(8);
+        patch[144] = 24;
+        Arrays.fill(patch, 145, 155, (byte) 'A');
+        patch[155] = 0x3f;
+        return patch;
+    }
+
+    @Test
+    void testSameAsNote() {
+        Random random = new Random(4);
+        Note.Controllers controllers = new Note.Controllers(0x2000);
+        for (int i = 0; i < 64; i++) {
+            int blockSize = new int[] { 16, 64, 512 }[i % 3];
+            byte[] patch = randomPatch(random);
+            int midiNote = 36 + random.nextInt(60);
+            int velocity = 1 + random.nextInt(127);
+            Context context = Context.getInstance(44100, blockSize);
+            Lfo lfo = new Lfo(context);
+            lfo.reset(patch, 137);
+            lfo.keyDown();
+            Note note = new Note(context, patch, midiNote, velocity);
+            VoicePool pool = new VoicePool(context, 4);
+            int voice = pool.noteOn(patch, midiNote, velocity);
+
+            int[] expected = new int[blockSize];
+            long[] mix = new long[blockSize];
+            int[] actual = new int[blockSize];
+            for (int block = 0; block < 300; block++) {
+                if (block == 200) {
+                    note.keyUp();
+                    pool.keyUp(voice);
+                }
+                int lfoValue = lfo.getSample();
+                int lfoDelay = lfo.getDelay();
+                Arrays.fill(expected, 0);
+                note.compute(expected, lfoValue, lfoDelay, controllers);
+                Arrays.fill(mix, 0);
+                pool.compute(mix, lfoValue, lfoDelay, controllers);
+                for (int j = 0; j < blockSize; j++) {
+                    actual[j] = (int) mix[j];
+                }
+                assertArrayEquals(expected, actual, "patch " + i + ", block size " + blockSize + ", algorithm " + (patch[134] + 1) + ", block " + block);
+            }
+        }
+    }
+
+    @Test
+    void testMix() {
+        Random random = new Random(5);
+        Note.Controllers controllers = new Note.Controllers(0x2000);
+        Context context = Context.getInstance(44100);
+        int voices = 40;
+        byte[][] patches = new byte[8][];
+        for (int i = 0; i < patches.length; i++) {
+            patches[i] = randomPatch(random);
+        }
+        VoicePool pool = new VoicePool(context, voices);
+        VoicePool[] singles = new VoicePool[voices];
+        int[] ids = new int[voices];
+        for (int v = 0; v < voices; v++) {
+            byte[] patch = patches[random.nextInt(patches.length)];
+            int midiNote = 36 + random.nextInt(60);
+            int velocity = 1 + random.nextInt(127);
+            ids[v] = pool.noteOn(patch, midiNote, velocity);
+            singles[v] = new VoicePool(context, 1);
+            singles[v].noteOn(patch, midiNote, velocity);
+        }
+        assertEquals(voices, pool.size());
+        assertEquals(-1, pool.noteOn(patches[0], 60, 100));
+Debug.println("voices: " + pool.size());
+
+        long[] expected = new long[Note.N];
+        long[] actual = new long[Note.N];
+        for (int block = 0; block < 200; block++) {
+            if (block == 100) {
+                for (int v = 0; v < voices; v += 2) {
+                    pool.keyUp(ids[v]);
+                    singles[v].keyUp(0);
+                }
+            }
+            if (block == 150) {
+                for (int v = 1; v < voices; v += 4) {
+                    pool.free(ids[v]);
+                    singles[v] = null;
+                }
+            }
+            Arrays.fill(expected, 0);
+            for (VoicePool single : singles) {
+                if (single != null) {
+                    single.compute(expected, 1 << 23, 0, controllers);
+                }
+            }
+            Arrays.fill(actual, 0);
+            pool.compute(actual, 1 << 23, 0, controllers);
+            assertArrayEquals(expected, actual, "block " + block);
+        }
+        // released voices may have been reaped meanwhile
+        int live = 0;
+        for (VoicePool single : singles) {
+            if (single != null) {
+                live += single.size();
+            }
+        }
+        assertEquals(live, pool.size());
+        assertTrue(live >= voices / 2);
+    }
+
+    /** each part is mixed apart, with its own pitch bend and LFO */
+    @Test
+    void testParts() {
+        Random random = new Random(16);
+        Context context = Context.getInstance(44100);
+        int parts = 3;
+        int voices = 30;
+        int[] lfoValues = new int[parts];
+        int[] lfoDelays = new int[parts];
+        Note.Controllers[] controllers = new Note.Controllers[parts];
+        VoicePool[] singles = new VoicePool[parts];
+        for (int p = 0; p < parts; p++) {
+            lfoValues[p] = random.nextInt(1 << 24);
+            lfoDelays[p] = random.nextInt(1 << 24);
+            controllers[p] = new Note.Controllers(p * 0x1000 + 0x1000);
+            singles[p] = new VoicePool(context, voices);
+        }
+        VoicePool pool = new VoicePool(context, voices, parts);
+        ForkJoinPool forkJoinPool = new ForkJoinPool(3);
+        try {
+            pool.setForkJoinPool(forkJoinPool);
+            for (int v = 0; v < voices; v++) {
+                CompiledPatch patch = CompiledPatch.of(randomPatch(random));
+                int midiNote = 36 + random.nextInt(60);
+                int velocity = 1 + random.nextInt(127);
+                int p = random.nextInt(parts);
+                pool.noteOn(patch, midiNote, velocity, p);
+                singles[p].noteOn(patch, midiNote, velocity);
+            }
+
+            long[] expected = new long[parts * Note.N];
+            long[] actual = new long[parts * Note.N];
+            long[] mix = new long[Note.N];
+            for (int block = 0; block < 100; block++) {
+                for (int p = 0; p < parts; p++) {
+                    Arrays.fill(mix, 0);
+                    singles[p].compute(mix, lfoValues[p], lfoDelays[p], controllers[p]);
+                    System.arraycopy(mix, 0, expected, p * Note.N, Note.N);
+                }
+                Arrays.fill(actual, 0);
+                pool.compute(actual, lfoValues, lfoDelays, controllers);
+                assertArrayEquals(expected, actual, "block " + block);
+            }
+        } finally {
+            forkJoinPool.shutdown();
+        }
+    }
+
+    /** bit identical for any number of threads */
+    @Test
+    void testParallel() {
+        Random random = new Random(17);
+        Note.Controllers controllers = new Note.Controllers(0x2000);
+        Context context = Context.getInstance(44100);
+        int voices = 160;
+        CompiledPatch[] patches = new CompiledPatch[12];
+        for (int i = 0; i < patches.length; i++) {
+            patches[i] = new CompiledPatch(randomPatch(random));
+        }
+        int[] threads = { 0, 1, 2, 3, 8 };
+        VoicePool[] pools = new VoicePool[threads.length];
+        ForkJoinPool[] fjps = new ForkJoinPool[threads.length];
+        for (int t = 0; t < threads.length; t++) {
+            pools[t] = new VoicePool(context, voices);
+            if (threads[t] > 0) {
+                fjps[t] = new ForkJoinPool(threads[t]);
+                pools[t].setForkJoinPool(fjps[t]);
+            }
+        }
+        try {
+            long[] expected = new long[Note.N];
+            long[] actual = new long[Note.N];
+            int[][] ids = new int[threads.length][voices];
+            for (int block = 0; block < 300; block++) {
+                if (block % 10 == 0) { // notes come and go, the groups change
+                    for (int n = 0; n < 20; n++) {
+                        CompiledPatch patch = patches[random.nextInt(patches.length)];
+                        int midiNote = 36 + random.nextInt(60);
+                        int velocity = 1 + random.nextInt(127);
+                        int v = random.nextInt(voices);
+                        for (int t = 0; t < threads.length; t++) {
+                            if (pools[t].isLive(ids[t][v])) {
+                                pools[t].keyUp(ids[t][v]);
+                            }
+                            int id = pools[t].noteOn(patch, midiNote, velocity);
+                            if (id >= 0) {
+                                ids[t][v] = id;
+                            }
+                        }
+                    }
+                }
+                Arrays.fill(expected, 0);
+                pools[0].compute(expected, 1 << 23, 0, controllers);
+                for (int t = 1; t < threads.length; t++) {
+                    Arrays.fill(actual, 0);
+                    pools[t].compute(actual, 1 << 23, 0, controllers);
+                    assertArrayEquals(expected, actual, "threads " + threads[t] + ", block " + block);
+                    assertEquals(pools[0].size(), pools[t].size());
+                }
+            }
+Debug.println("voices: " + pools[0].size());
+            assertTrue(pools[0].size() > 2 * 8);
+        } finally {
+            for (ForkJoinPool fjp : fjps) {
+                if (fjp != null) {
+                    fjp.shutdown();
+                }
+            }
+        }
+    }
+
+    @Test
+    void testReap() {
+        Random random = new Random(6);
+        Note.Controllers controllers = new Note.Controllers(0x2000);
+        Context context = Context.getInstance(44100);
+        int reaped = 0;
+        for (int i = 0; i < 64; i++) {
+            byte[] patch = randomPatch(random);
+            for (int op = 0; op < 6; op++) {
+                patch[op * 21 + 3] = (byte) (50 + random.nextInt(50)); // release rate
+                patch[op * 21 + 7] = 0; // release level
+            }
+            boolean sounding = (Note.operators(patch, 60, 100) & FmCore.carriers(patch[134])) != 0;
+            Note note = new Note(context, patch, 60, 100);
+            VoicePool pool = new VoicePool(context, 1);
+            int voice = pool.noteOn(patch, 60, 100);
+            int[] expected = new int[Note.N];
+            long[] actual = new long[Note.N];
+            for (int block = 0; block < 2000; block++) {
+                if (block == 20) {
+                    note.keyUp();
+                    pool.keyUp(voice);
+                }
+                Arrays.fill(expected, 0);
+                note.compute(expected, 1 << 23, 0, controllers);
+                Arrays.fill(actual, 0);
+                pool.compute(actual, 1 << 23, 0, controllers);
+                if (block < 20 && sounding) {
+                    assertTrue(pool.isLive(voice));
+                }
+                if (!pool.isLive(voice)) {
+                    // a reaped voice is silent for good
+                    for (int j = 0; j < Note.N; j++) {
+                        assertEquals(0, expected[j], "patch " + i + ", block " + block);
+                        assertEquals(0, actual[j]);
+                    }
+                }
+            }
+            if (!pool.isLive(voice)) {
+                reaped++;
+                assertEquals(0, pool.size());
+                pool.free(voice); // no op
+                assertEquals(voice, pool.noteOn(patch, 60, 100));
+                assertEquals(1, pool.size());
+            }
+        }
+Debug.println("reaped: " + reaped);
+        assertEquals(64, reaped);
+    }
+
+    @Test
+    void testOperatorSwitch() {
+        Random random = new Random(7);
+        Note.Controllers controllers = new Note.Controllers(0x2000);
+        Context context = Context.getInstance(44100);
+        for (int i = 0; i < 64; i++) {
+            byte[] patch = randomPatch(random);
+            patch[155] = (byte) random.nextInt(64);
+            int carriers = FmCore.carriers(patch[134]);
+            int operators = Note.operators(patch, 60, 100);
+            assertEquals(0, operators & ~patch[155]);
+
+            Note note = new Note(context, patch, 60, 100);
+            VoicePool pool = new VoicePool(context, 1);
+            pool.noteOn(patch, 60, 100);
+            int[] expected = new int[Note.N];
+            long[] actual = new long[Note.N];
+            for (int block = 0; block < 100; block++) {
+                Arrays.fill(expected, 0);
+                note.compute(expected, 1 << 23, 0, controllers);
+                Arrays.fill(actual, 0);
+                pool.compute(actual, 1 << 23, 0, controllers);
+                for (int j = 0; j < Note.N; j++) {
+                    assertEquals(expected[j], actual[j], "patch " + i + ", block " + block);
+                    if ((operators & carriers) == 0) {
+                        assertEquals(0, expected[j]);
+                    }
+                }
+            }
+            if ((operators & carriers) == 0) {
+                // nothing can sound, reaped at once
+                assertEquals(0, pool.size());
+            }
+        }
+    }
+}
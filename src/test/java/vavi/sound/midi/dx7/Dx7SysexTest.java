@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.midi.dx7;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import vavi.sound.dx7.CompiledPatch;
+import vavi.util.Debug;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Dx7SysexTest.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (nsano)
+ * @version 0.00 2026/10/17 nsano initial version <br>
+ */
+class Dx7SysexTest {
+
+    /** a single voice dump as {@code SysexMessage#getData()} gives it, one operator at full level */
+    static byte[] dump(int op) {
+        byte[] data = new byte[5 + 155 + 2];
+        data[0] = 0x43;
+        data[3] = 0x01;
+        data[4] = 0x1b;
+        for (int i = 0; i < 6; i++) {
+            Arrays.fill(data, 5 + i * 21, 5 + i * 21 + 8, (byte) 99); // rates and levels
+            data[5 + i * 21 + 18] = 1; // coarse
+        }
+        data[5 + op * 21 + 16] = 99; // output level
+        data[5 + 134] = 31; // algorithm 32, all carriers
+        data[5 + 155] = 0; // checksum, would switch every operator off
+        data[5 + 156] = (byte) 0xf7;
+        return data;
+    }
+
+    /** each operator sounds whatever the checksum of the dump */
+    @Test
+    void testSingleVoice() {
+        for (int op = 0; op < 6; op++) {
+            Dx7 dx7 = new Dx7();
+            dx7.setSampleRate(44100);
+            byte[] patch = new byte[156];
+            Dx7.loadVoice(patch, dump(op), 5);
+            assertEquals(0x3f, patch[155]);
+            dx7.noteOn(CompiledPatch.of(patch), 69, 100);
+            float[] buffer = new float[dx7.getBlockSize()];
+            float peak = 0;
+            for (int i = 0; i < 10; i++) {
+                dx7.render(buffer, 0);
+                for (float sample : buffer) {
+                    peak = Math.max(peak, Math.abs(sample));
+                }
+            }
+Debug.println("op " + op + ": " + peak);
+            assertTrue(peak > 0, "op " + op);
+        }
+    }
+}
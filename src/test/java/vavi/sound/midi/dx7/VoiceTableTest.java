@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package vavi.sound.midi.dx7;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import vavi.sound.dx7.CompiledPatch;
+import vavi.sound.dx7.Context;
+import vavi.sound.dx7.Note;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * VoiceTableTest.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (nsano)
+ * @version 0.00 2026/10/17 nsano initial version <br>
+ */
+class VoiceTableTest {
+
+    static VoiceTable.ActiveNote note(int key) {
+        VoiceTable.ActiveNote note = new VoiceTable.ActiveNote();
+        note.note = new Note(Context.getInstance(44100), CompiledPatch.of(new byte[156]), key, 100);
+        return note;
+    }
+
+    @Test
+    void testAddRemove() {
+        VoiceTable table = new VoiceTable();
+        VoiceTable.ActiveNote[] notes = new VoiceTable.ActiveNote[100];
+        for (int i = 0; i < notes.length; i++) {
+            notes[i] = note(60 + i % 3);
+            table.add(notes[i]);
+        }
+        table.add(notes[0]); // in already
+        assertEquals(100, table.size());
+        for (int i = 0; i < notes.length; i += 2) {
+            table.remove(notes[i]);
+            assertFalse(table.contains(notes[i]));
+        }
+        table.remove(notes[0]); // not in
+        assertEquals(50, table.size());
+        for (int i = 1; i < notes.length; i += 2) {
+            assertTrue(table.contains(notes[i]));
+            table.remove(notes[i]);
+        }
+        assertEquals(0, table.size());
+    }
+
+    /** the pedal released from another thread, the notes by the rendering one */
+    @Test
+    void testSustain() throws Exception {
+        VoiceTable table = new VoiceTable();
+        VoiceTable other = new VoiceTable(); // another synthesizer
+        table.setSustain(true);
+        other.setSustain(true);
+        VoiceTable.ActiveNote[] notes = new VoiceTable.ActiveNote[20];
+        for (int i = 0; i < notes.length; i++) {
+            notes[i] = note(40 + i);
+            notes[i].keyDown = true;
+            notes[i].sustained = true;
+            table.add(notes[i]);
+            other.add(note(40 + i));
+            if (i % 2 == 0) {
+                notes[i].keyDown = false; // held by the pedal
+            }
+        }
+        Thread midi = new Thread(() -> table.setSustain(false));
+        midi.start();
+        midi.join();
+        assertEquals(20, table.size()); // not until rendered
+        table.update();
+        assertEquals(10, table.size());
+        for (int i = 0; i < notes.length; i++) {
+            assertEquals(i % 2 != 0, table.contains(notes[i]), "note " + i);
+        }
+        other.update();
+        assertEquals(20, other.size());
+        assertTrue(other.isSustain());
+    }
+
+    /** a note sounding when the sample rate changes is made again, held by the table still */
+    @Test
+    void testSampleRate() {
+        Dx7 dx7 = new Dx7();
+        dx7.setSampleRate(44100);
+        float[] buffer = new float[dx7.getBlockSize()];
+        dx7.render(buffer, 0); // no note yet
+        byte[] patch = new byte[156];
+        for (int op = 0; op < 6; op++) {
+            Arrays.fill(patch, op * 21, op * 21 + 8, (byte) 99); // rates and levels
+            patch[op * 21 + 16] = 99; // output level
+            patch[op * 21 + 18] = 1; // coarse
+        }
+        patch[155] = 0x3f; // operators on
+        dx7.noteOn(CompiledPatch.of(patch), 69, 100);
+        dx7.render(buffer, 0);
+        dx7.setSampleRate(48000);
+        assertEquals(1, dx7.getVoices().size());
+        float peak = 0;
+        for (int i = 0; i < 10; i++) {
+            dx7.render(buffer, 0);
+            for (float sample : buffer) {
+                peak = Math.max(peak, Math.abs(sample));
+            }
+        }
+        assertTrue(peak > 0);
+        dx7.noteOff();
+        assertEquals(0, dx7.getVoices().size());
+    }
+}